@@ -0,0 +1,56 @@
+package com.nirima.jenkins.plugins.docker.benchmark;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the template for a label, which NodeProvisioner does on every tick.
+ *
+ * The label matches no template, so every template is visited.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetTemplateBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int templateCount;
+
+    private DockerCloud cloud;
+    private Label label;
+
+    @Setup
+    public void setUp() {
+        List<DockerTemplate> templates = new ArrayList<DockerTemplate>();
+        for (int i = 0; i < templateCount; i++) {
+            templates.add(new DockerTemplate("image" + i, null, "/home/jenkins", "", "credentialsId", "5",
+                    "", "", "", "", "", "", "", "", "", "", "", "0.0.0.0::22", false, false, 0, 0, null, 0, "", "", "", 0, "", 0, false, 0, 0, null));
+        }
+        cloud = new DockerCloud("benchmark", templates, "http://localhost:4243", "", 5, 15, "", "");
+        label = new LabelAtom("nomatch");
+    }
+
+    @Benchmark
+    public DockerTemplate getTemplateByLabel() {
+        return cloud.getTemplate(label);
+    }
+
+    @Benchmark
+    public DockerTemplate getTemplateByImage() {
+        return cloud.getTemplate("image" + (templateCount - 1));
+    }
+}
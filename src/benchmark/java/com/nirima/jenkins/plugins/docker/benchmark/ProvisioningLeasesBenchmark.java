@@ -0,0 +1,40 @@
+package com.nirima.jenkins.plugins.docker.benchmark;
+
+import com.nirima.jenkins.plugins.docker.ProvisioningLeases;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Throughput of the in-flight provisioning accounting when many provisioning
+ * threads take and give back leases at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class ProvisioningLeasesBenchmark {
+
+    static {
+        // Every lease logs at INFO; keep that out of the measurement.
+        Logger.getLogger(ProvisioningLeases.class.getName()).setLevel(Level.WARNING);
+    }
+
+    private final ProvisioningLeases leases = new ProvisioningLeases();
+
+    @Benchmark
+    public boolean acquireAndRelease() {
+        String image = "image" + (Thread.currentThread().getId() % 4);
+        ProvisioningLeases.Lease lease = leases.tryAcquire("benchmark", image, 10, 2, Integer.MAX_VALUE, Integer.MAX_VALUE, 60000);
+        leases.release(lease);
+        return lease != null;
+    }
+}
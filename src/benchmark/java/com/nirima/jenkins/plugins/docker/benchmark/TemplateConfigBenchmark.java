@@ -0,0 +1,61 @@
+package com.nirima.jenkins.plugins.docker.benchmark;
+
+import com.nirima.docker.client.model.ContainerConfig;
+import com.nirima.docker.client.model.HostConfig;
+import com.nirima.docker.client.model.PortMapping;
+import com.nirima.jenkins.plugins.docker.DockerSimpleTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a template into the configuration sent to docker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateConfigBenchmark {
+
+    @Param({"0.0.0.0::22", "0.0.0.0:2222:22 0.0.0.0:8080:8080 0.0.0.0:8443:8443 0.0.0.0:5005:5005"})
+    public String bindPorts;
+
+    private DockerSimpleTemplate template;
+
+    @Setup
+    public void setUp() {
+        template = new DockerSimpleTemplate("jenkins/slave:latest",
+                "8.8.8.8 8.8.4.4",
+                "/usr/sbin/sshd -D",
+                "/var/cache/m2:/home/jenkins/.m2 /var/cache/npm:/home/jenkins/.npm",
+                "",
+                "lxc.aa_profile=unconfined lxc.cgroup.cpu.shares=512",
+                "",
+                bindPorts,
+                false,
+                false,
+                2048,
+                512);
+    }
+
+    @Benchmark
+    public ContainerConfig createContainerConfig() {
+        return template.createContainerConfig();
+    }
+
+    @Benchmark
+    public HostConfig createHostConfig() {
+        return template.createHostConfig();
+    }
+
+    @Benchmark
+    public Object parsePortMapping() {
+        return PortMapping.parse(bindPorts);
+    }
+}
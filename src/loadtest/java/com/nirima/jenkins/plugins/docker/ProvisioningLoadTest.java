@@ -0,0 +1,278 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.builder.DockerBuilderControl;
+import com.nirima.jenkins.plugins.docker.builder.DockerBuilderControlOptionProvisionAndStart;
+import com.nirima.jenkins.plugins.docker.builder.DockerBuilderControlOptionStopAll;
+import com.nirima.jenkins.plugins.docker.fake.FakeDockerDaemon;
+import com.nirima.jenkins.plugins.docker.fake.LatencyDistribution;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link DockerCloud#provision}, {@link DockerSlave#terminate} and the container build steps
+ * against a {@link FakeDockerDaemon}, and logs throughput, tail latency and how well supply tracked demand.
+ *
+ * The simulation stands in for NodeProvisioner: every tick the excess workload is asked of the cloud,
+ * each slave it starts takes one queue item, builds, and is terminated.
+ *
+ * Only compiled by the loadtest profile, which runs 5000 items; scale it with
+ * -Ddocker.loadtest.items and -Ddocker.loadtest.cap.
+ */
+public class ProvisioningLoadTest {
+    private static final Logger LOGGER = Logger.getLogger(ProvisioningLoadTest.class.getName());
+
+    private static final String IMAGE = "jenkins/slave:latest";
+    private static final String LABEL = "load";
+
+    private static final int ITEMS = Integer.getInteger("docker.loadtest.items", 5000);
+    private static final int CAP = Integer.getInteger("docker.loadtest.cap", 100);
+    private static final long BUILD_MILLIS = Long.getLong("docker.loadtest.buildMillis", 20);
+    private static final long ARRIVAL_MILLIS = Long.getLong("docker.loadtest.arrivalMillis", 2);
+    private static final long TICK_MILLIS = 10;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeDockerDaemon daemon;
+    private DockerCloud cloud;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.getLogger(ProvisioningLeases.class.getName()).setLevel(Level.WARNING);
+        Logger.getLogger(DockerCloud.class.getName()).setLevel(Level.WARNING);
+        daemon = new FakeDockerDaemon()
+                .withImage(IMAGE)
+                .withLatency(LatencyDistribution.logNormal(2, 0.8))
+                .withLatency(FakeDockerDaemon.Operation.CREATE, LatencyDistribution.logNormal(10, 1.0))
+                .start();
+
+        // Nothing listens on the containers' ssh ports, so slaves come up offline straight away.
+        DockerTemplate template = new DockerTemplate(IMAGE, LABEL, "", "", null, "5", "", "", "", "",
+                String.valueOf(CAP), "", "", "", "", "", "", "0.0.0.0::22", false, false, 0, 0,
+                null, 0, "", "", "", 0, "", 0, false, 0, 0, null);
+        cloud = new DockerCloud("load", Collections.singletonList(template), daemon.getUrl(),
+                String.valueOf(CAP), 5, 30, "", "");
+        j.jenkins.clouds.add(cloud);
+    }
+
+    @After
+    public void tearDown() {
+        daemon.stop();
+    }
+
+    @Test
+    public void testProvisioningUnderLoad() throws Exception {
+        Report report = run();
+        LOGGER.info(report.toString());
+
+        assertEquals("every queue item is built", ITEMS, report.built.get());
+        assertTrue("container cap respected: " + report.peakContainers, report.peakContainers.get() <= CAP);
+        assertEquals("all slaves terminated", 0, j.jenkins.getNodes().size());
+        assertEquals("all containers cleaned up", 0, daemon.getContainers().size());
+    }
+
+    @Test
+    public void testProvisioningWithFailures() throws Exception {
+        daemon.withFailureRate(FakeDockerDaemon.Operation.START, 0.1);
+
+        Report report = run();
+        LOGGER.info(report.toString());
+
+        assertEquals("every queue item is built despite failures", ITEMS, report.built.get());
+        assertTrue("failures were injected", report.failedProvisions.get() > 0);
+        assertTrue("container cap respected: " + report.peakContainers, report.peakContainers.get() <= CAP);
+        assertEquals("all slaves terminated", 0, j.jenkins.getNodes().size());
+    }
+
+    @Test
+    public void testBuildSteps() throws Exception {
+        // Each project starts a container from the template in a build step and removes it in another.
+        j.jenkins.setNumExecutors(CAP);
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < CAP; i++) {
+            FreeStyleProject project = j.createFreeStyleProject();
+            project.getBuildersList().add(new DockerBuilderControl(new DockerBuilderControlOptionProvisionAndStart(cloud.name, IMAGE)));
+            project.getBuildersList().add(new DockerBuilderControl(new DockerBuilderControlOptionStopAll(true)));
+            projects.add(project);
+        }
+
+        long start = System.currentTimeMillis();
+        int rounds = Math.max(1, ITEMS / 10 / CAP);
+        for (int round = 0; round < rounds; round++) {
+            List<Future<FreeStyleBuild>> builds = new ArrayList<Future<FreeStyleBuild>>();
+            for (FreeStyleProject project : projects) {
+                builds.add(project.scheduleBuild2(0));
+            }
+            for (Future<FreeStyleBuild> build : builds) {
+                j.assertBuildStatusSuccess(build);
+            }
+        }
+        LOGGER.info(String.format("Build steps: %d builds in %dms", rounds * CAP, System.currentTimeMillis() - start));
+
+        assertEquals("all containers removed by the build steps", 0, daemon.getContainers().size());
+    }
+
+    private Report run() throws Exception {
+        final Report report = new Report();
+        final Label label = j.jenkins.getLabel(LABEL);
+
+        final Queue<Long> waiting = new ConcurrentLinkedQueue<Long>();        // arrival times of queued items
+        final Queue<DockerSlave> idle = new ConcurrentLinkedQueue<DockerSlave>(); // slaves ready for an item
+        final AtomicInteger inFlight = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(ITEMS);
+
+        ExecutorService provisioners = Executors.newCachedThreadPool();
+        ExecutorService builders = Executors.newCachedThreadPool();
+
+        long start = System.currentTimeMillis();
+        int arrived = 0;
+        long nextArrival = start;
+
+        try {
+            while (done.getCount() > 0) {
+                long now = System.currentTimeMillis();
+                assertTrue("load test stalled", now - start < TimeUnit.MINUTES.toMillis(30));
+
+                while (arrived < ITEMS && nextArrival <= now) {
+                    waiting.add(nextArrival);
+                    arrived++;
+                    nextArrival += ARRIVAL_MILLIS;
+                }
+
+                // Hand ready slaves to waiting items.
+                DockerSlave ready;
+                while (!waiting.isEmpty() && (ready = idle.poll()) != null) {
+                    final long arrival = waiting.poll();
+                    final DockerSlave slave = ready;
+                    builders.submit(new Runnable() {
+                        public void run() {
+                            try {
+                                report.waits.add(System.currentTimeMillis() - arrival);
+                                Thread.sleep(BUILD_MILLIS);
+                                report.built.incrementAndGet();
+                                slave.terminate();
+                            } catch (Exception ex) {
+                                report.failedTerminations.incrementAndGet();
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+
+                report.peak(daemon.getRunningContainers());
+
+                // What NodeProvisioner would ask for.
+                int excess = waiting.size() - idle.size() - inFlight.get();
+                if (excess > 0)
+                    report.underProvisionedTicks++;
+                if (waiting.isEmpty() && !idle.isEmpty())
+                    report.overProvisionedTicks++;
+
+                if (excess > 0) {
+                    final long requested = now;
+                    for (final NodeProvisioner.PlannedNode planned : cloud.provision(label, excess)) {
+                        inFlight.incrementAndGet();
+                        provisioners.submit(new Runnable() {
+                            public void run() {
+                                try {
+                                    DockerSlave slave = (DockerSlave) planned.future.get();
+                                    report.provisionLatencies.add(System.currentTimeMillis() - requested);
+                                    idle.add(slave);
+                                } catch (Exception ex) {
+                                    report.failedProvisions.incrementAndGet();
+                                } finally {
+                                    inFlight.decrementAndGet();
+                                }
+                            }
+                        });
+                    }
+                }
+
+                Thread.sleep(TICK_MILLIS);
+            }
+
+            report.elapsed = System.currentTimeMillis() - start;
+        } finally {
+            provisioners.shutdown();
+            provisioners.awaitTermination(1, TimeUnit.MINUTES);
+            builders.shutdown();
+            builders.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        // Anything still idle was provisioned for demand that never came.
+        DockerSlave leftover;
+        while ((leftover = idle.poll()) != null) {
+            report.surplusContainers++;
+            leftover.terminate();
+        }
+
+        return report;
+    }
+
+    private static class Report {
+        final List<Long> provisionLatencies = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> waits = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger built = new AtomicInteger();
+        final AtomicInteger failedProvisions = new AtomicInteger();
+        final AtomicInteger failedTerminations = new AtomicInteger();
+        final AtomicInteger peakContainers = new AtomicInteger();
+        int surplusContainers;
+        int underProvisionedTicks;
+        int overProvisionedTicks;
+        long elapsed;
+
+        void peak(int containers) {
+            int peak;
+            do {
+                peak = peakContainers.get();
+            } while (containers > peak && !peakContainers.compareAndSet(peak, containers));
+        }
+
+        static long percentile(List<Long> values, double p) {
+            List<Long> sorted = new ArrayList<Long>(values);
+            if (sorted.isEmpty())
+                return 0;
+            Collections.sort(sorted);
+            return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Provisioning load test: %d items in %dms (%.1f items/s)%n"
+                            + "  provision latency p50=%dms p95=%dms p99=%dms max=%dms%n"
+                            + "  queue wait        p50=%dms p95=%dms p99=%dms max=%dms%n"
+                            + "  peak containers=%d, failed provisions=%d, failed terminations=%d%n"
+                            + "  under-provisioned ticks=%d, over-provisioned ticks=%d, surplus containers=%d",
+                    built.get(), elapsed, built.get() * 1000.0 / Math.max(1, elapsed),
+                    percentile(provisionLatencies, 0.5), percentile(provisionLatencies, 0.95),
+                    percentile(provisionLatencies, 0.99), percentile(provisionLatencies, 1.0),
+                    percentile(waits, 0.5), percentile(waits, 0.95), percentile(waits, 0.99), percentile(waits, 1.0),
+                    peakContainers.get(), failedProvisions.get(), failedTerminations.get(),
+                    underProvisionedTicks, overProvisionedTicks, surplusContainers);
+        }
+    }
+}
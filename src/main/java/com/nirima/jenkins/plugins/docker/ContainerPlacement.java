@@ -0,0 +1,42 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.google.common.base.Objects;
+
+/**
+ * Host resources set aside for a container before it is created, which
+ * {@link DockerTemplateBase#createContainerConfig(ContainerPlacement)} and
+ * {@link DockerTemplateBase#createHostConfig(ContainerPlacement)} apply to it.
+ */
+public class ContainerPlacement {
+
+    /**
+     * Cores to pin the container to, or null to let it run anywhere.
+     */
+    public final DockerCpuAllocator.Allocation cpus;
+
+    /**
+     * Directory on the host's shared memory for the container's tmpfs paths, or null if it has none.
+     */
+    public final String tmpfsDir;
+
+    /**
+     * Lease on the slot the container takes up while it is provisioned, or null if it
+     * doesn't count towards a cap.
+     */
+    public final ProvisioningLeases.Lease lease;
+
+    public ContainerPlacement(DockerCpuAllocator.Allocation cpus, String tmpfsDir, ProvisioningLeases.Lease lease) {
+        this.cpus = cpus;
+        this.tmpfsDir = tmpfsDir;
+        this.lease = lease;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("cpus", cpus)
+                .add("tmpfsDir", tmpfsDir)
+                .add("lease", lease)
+                .toString();
+    }
+}
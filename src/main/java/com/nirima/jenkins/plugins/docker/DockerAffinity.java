@@ -0,0 +1,290 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Image;
+import com.google.common.base.Strings;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import com.nirima.jenkins.plugins.docker.workspace.DockerWorkspaces;
+import hudson.model.Label;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Chooses which of several docker clouds that can serve a label should start the slave.
+ *
+ * Every cloud able to serve a label offers to, and whichever Jenkins asks first starts the
+ * slaves on the best scoring clouds that admit them, moving down the ranking when one turns
+ * them down for lack of room. A host scores higher the less it would have to pull to start
+ * the template's image, and the less loaded it is. Scores come from the
+ * {@link DockerHostSnapshot}s and reservations, so ranking costs no calls to the daemons.
+ */
+public class DockerAffinity {
+    private static final Logger LOGGER = Logger.getLogger(DockerAffinity.class.getName());
+
+    /**
+     * How much of the score (percent) is for the image; the rest is for how idle the host is.
+     */
+    private static final int IMAGE_WEIGHT = Integer.getInteger(DockerAffinity.class.getName() + ".imageWeight", 60);
+
+    /**
+     * How many placements to keep for the management page.
+     */
+    private static final int HISTORY = Integer.getInteger(DockerAffinity.class.getName() + ".history", 50);
+
+    /**
+     * Image score for a host that has the image's parent, so only the top layers need pulling.
+     */
+    private static final double PARENT_PRESENT = 0.6;
+
+    /**
+     * Image score for a host that has another tag of the repository, which usually shares most layers.
+     */
+    private static final double REPOSITORY_PRESENT = 0.3;
+
+    private static final LinkedList<Placement> PLACEMENTS = new LinkedList<Placement>();
+
+    private DockerAffinity() {
+    }
+
+    /**
+     * @return the clouds to try starting a slave for the label on, best first, ending with
+     * the cloud asked if it isn't ranked, so that it still gets to try.
+     */
+    public static List<DockerCloud> getCandidates(DockerCloud asked, Label label) {
+        List<DockerCloud> clouds = new ArrayList<DockerCloud>();
+        for (Score score : rank(label))
+            clouds.add(score.cloud);
+        if (!clouds.contains(asked))
+            clouds.add(asked);
+        return clouds;
+    }
+
+    /**
+     * Record that the cloud is starting a slave for the label.
+     */
+    public static void recordPlacement(DockerCloud cloud, Label label, DockerTemplate template) {
+        List<Score> scores = rank(label);
+        if (scores.size() < 2)
+            return;
+
+        Placement placement = new Placement(label == null ? "" : label.getName(), template.image, cloud.name, scores);
+        LOGGER.log(Level.FINE, "Placed " + placement);
+        synchronized (PLACEMENTS) {
+            PLACEMENTS.addFirst(placement);
+            while (PLACEMENTS.size() > HISTORY)
+                PLACEMENTS.removeLast();
+        }
+    }
+
+    /**
+     * @return the most recent placements first.
+     */
+    public static List<Placement> getPlacements() {
+        synchronized (PLACEMENTS) {
+            return new ArrayList<Placement>(PLACEMENTS);
+        }
+    }
+
+    /**
+     * @return the clouds able to start a slave for the label, best first.
+     */
+    public static List<Score> rank(Label label) {
+        List<Score> scores = new ArrayList<Score>();
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            DockerTemplate t = cloud.getTemplate(label);
+            if (t == null || !isAvailable(cloud, t, label))
+                continue;
+            scores.add(score(cloud, t));
+        }
+        // Stable, so clouds that tie keep their configured order.
+        Collections.sort(scores);
+        return scores;
+    }
+
+    static Score score(DockerCloud cloud, DockerTemplate t) {
+        DockerHostSnapshot snapshot = DockerHostSnapshot.get(cloud);
+        double image = snapshot == null ? 0 : getImageScore(snapshot, t.image);
+        double load = Math.max(getContainerLoad(cloud, snapshot), DockerHostCapacity.get(cloud).getLoad(cloud));
+        return new Score(cloud, image, load, DockerHostHealth.get(cloud).getScore());
+    }
+
+    private static boolean isAvailable(DockerCloud cloud, DockerTemplate t, Label label) {
+        if (!DockerHostHealth.get(cloud).isAvailable())
+            return false;
+        if (t.isPersistentWorkspace() && DockerWorkspaces.get().isPreferredElsewhere(cloud, label))
+            return false;
+
+        DockerHostSnapshot snapshot = DockerHostSnapshot.get(cloud);
+        if (snapshot != null && snapshot.error != null)
+            return false;
+        return getContainerLoad(cloud, snapshot) < 1;
+    }
+
+    /**
+     * How much of the image the host already has: 1 for all of it, down to 0 for nothing.
+     */
+    static double getImageScore(DockerHostSnapshot snapshot, String image) {
+        String wanted = DockerImageUsage.normalize(image);
+        String repository = getRepository(wanted);
+
+        // The parent of the image, if any host has it.
+        String parentId = null;
+        for (DockerCloud other : PluginImpl.getInstance().getServers()) {
+            DockerHostSnapshot s = DockerHostSnapshot.get(other);
+            Image found = s == null ? null : find(s.images, wanted);
+            if (found != null && !Strings.isNullOrEmpty(found.getParentId())) {
+                parentId = found.getParentId();
+                break;
+            }
+        }
+
+        double score = 0;
+        for (Image i : snapshot.images) {
+            if (hasTag(i, wanted))
+                return 1;
+            if (parentId != null && (parentId.equals(i.getId()) || parentId.equals(i.getParentId())))
+                score = Math.max(score, PARENT_PRESENT);
+            else if (hasRepository(i, repository))
+                score = Math.max(score, REPOSITORY_PRESENT);
+        }
+        return score;
+    }
+
+    /**
+     * Fraction of the cloud's container cap in use.
+     */
+    private static double getContainerLoad(DockerCloud cloud, DockerHostSnapshot snapshot) {
+        if (snapshot == null || cloud.containerCap == Integer.MAX_VALUE)
+            return 0;
+        if (cloud.containerCap <= 0)
+            return 1;
+
+        int running = 0;
+        for (Container container : snapshot.containers) {
+            for (DockerTemplate t : cloud.templates) {
+                if (DockerImageUsage.normalize(t.image).equals(DockerImageUsage.normalize(container.getImage()))) {
+                    running++;
+                    break;
+                }
+            }
+        }
+        return (double) running / cloud.containerCap;
+    }
+
+    private static Image find(List<Image> images, String wanted) {
+        for (Image i : images) {
+            if (hasTag(i, wanted))
+                return i;
+        }
+        return null;
+    }
+
+    private static boolean hasTag(Image i, String wanted) {
+        if (i.getRepoTags() == null)
+            return false;
+        for (String tag : i.getRepoTags()) {
+            if (wanted.equals(DockerImageUsage.normalize(tag)))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean hasRepository(Image i, String repository) {
+        if (i.getRepoTags() == null)
+            return false;
+        for (String tag : i.getRepoTags()) {
+            if (repository.equals(getRepository(DockerImageUsage.normalize(tag))))
+                return true;
+        }
+        return false;
+    }
+
+    private static String getRepository(String normalized) {
+        return normalized.substring(0, normalized.lastIndexOf(':'));
+    }
+
+    /**
+     * How well placed a cloud is to start a template's image.
+     */
+    public static class Score implements Comparable<Score> {
+        public final DockerCloud cloud;
+
+        /**
+         * How much of the image the host has, 0 to 1.
+         */
+        public final double image;
+
+        /**
+         * How busy the host is, 0 to 1.
+         */
+        public final double load;
+
+        /**
+         * How fast and reliable the daemon has been, 0 to 1.
+         */
+        public final double health;
+
+        Score(DockerCloud cloud, double image, double load, double health) {
+            this.cloud = cloud;
+            this.image = image;
+            this.load = load;
+            this.health = health;
+        }
+
+        public double getValue() {
+            return health * (IMAGE_WEIGHT * image + (100 - IMAGE_WEIGHT) * (1 - load)) / 100;
+        }
+
+        public int compareTo(Score o) {
+            return Double.compare(o.getValue(), getValue());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%.2f (image %.1f, load %.2f, health %.2f)", cloud.name, getValue(), image, load, health);
+        }
+    }
+
+    /**
+     * A slave started on one of several clouds that could have taken it.
+     */
+    public static class Placement {
+        public final long timestamp = System.currentTimeMillis();
+        public final String label;
+        public final String image;
+        public final String cloud;
+        public final List<Score> scores;
+
+        Placement(String label, String image, String cloud, List<Score> scores) {
+            this.label = label;
+            this.image = image;
+            this.cloud = cloud;
+            this.scores = scores;
+        }
+
+        public Date getTime() {
+            return new Date(timestamp);
+        }
+
+        public String getScoresString() {
+            StringBuilder sb = new StringBuilder();
+            for (Score score : scores) {
+                if (sb.length() > 0)
+                    sb.append(", ");
+                sb.append(score);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return image + " for '" + label + "' on " + cloud + ": " + getScoresString();
+        }
+    }
+}
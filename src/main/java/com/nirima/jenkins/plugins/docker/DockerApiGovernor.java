@@ -0,0 +1,239 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.google.common.base.Joiner;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces the calls made to a docker daemon.
+ *
+ * Provisioning, liveness checks, the management pages and build steps all call the same
+ * daemons. When a burst of builds arrives they would otherwise swamp a daemon, which then
+ * slows down for everyone. Each kind of call draws from its own token bucket per host, so
+ * e.g. listing can't starve container creation, and critical calls (starting and stopping
+ * slaves) are served ahead of others waiting on the same bucket.
+ *
+ * Rates and bursts can be set per operation with system properties, e.g.
+ * {@code -Dcom.nirima.jenkins.plugins.docker.DockerApiGovernor.CREATE.rate=10}. A rate of 0 or
+ * less leaves the operation unpaced.
+ */
+public class DockerApiGovernor {
+    private static final Logger LOGGER = Logger.getLogger(DockerApiGovernor.class.getName());
+
+    private static final Map<String, DockerApiGovernor> GOVERNORS = new ConcurrentHashMap<String, DockerApiGovernor>();
+
+    /**
+     * Kinds of call, each with its own budget.
+     */
+    public enum Operation {
+        LIST(10, 20),
+        INSPECT(20, 40),
+        /**
+         * Creating, starting, stopping and removing containers.
+         */
+        CREATE(5, 10),
+        PULL(1, 2),
+        BUILD(1, 2);
+
+        /**
+         * Calls per second, and how many may go at once after a quiet spell.
+         */
+        final int rate, burst;
+
+        Operation(int rate, int burst) {
+            String prefix = DockerApiGovernor.class.getName() + "." + name();
+            this.rate = Integer.getInteger(prefix + ".rate", rate);
+            this.burst = Integer.getInteger(prefix + ".burst", burst);
+        }
+    }
+
+    public enum Priority {
+        /**
+         * Starting and stopping slaves; goes ahead of anything else waiting.
+         */
+        CRITICAL,
+        NORMAL
+    }
+
+    private final Map<Operation, TokenBucket> buckets = new EnumMap<Operation, TokenBucket>(Operation.class);
+
+    private DockerApiGovernor() {
+        for (Operation op : Operation.values())
+            buckets.put(op, new TokenBucket(op.rate, op.burst));
+    }
+
+    /**
+     * Governors are per daemon, so clouds pointing at the same one share it.
+     */
+    public static DockerApiGovernor get(DockerCloud cloud) {
+        DockerApiGovernor governor = GOVERNORS.get(cloud.serverUrl);
+        if (governor == null) {
+            synchronized (GOVERNORS) {
+                governor = GOVERNORS.get(cloud.serverUrl);
+                if (governor == null) {
+                    governor = new DockerApiGovernor();
+                    GOVERNORS.put(cloud.serverUrl, governor);
+                }
+            }
+        }
+        return governor;
+    }
+
+    public void acquire(Operation op) {
+        acquire(op, Priority.NORMAL);
+    }
+
+    /**
+     * Wait until the call may go ahead.
+     *
+     * If interrupted, returns at once with the interrupt flag set, so the caller's
+     * own call fails the way it would have anyway.
+     */
+    public void acquire(Operation op, Priority priority) {
+        try {
+            long waited = buckets.get(op).acquire(priority == Priority.CRITICAL);
+            if (waited > TimeUnit.SECONDS.toMillis(10))
+                LOGGER.log(Level.INFO, "Waited " + waited + "ms to " + op + " (" + priority + ")");
+            if (waited > 0) {
+                Span span = Tracing.record("docker.api.wait", System.currentTimeMillis() - waited, waited);
+                if (span != null)
+                    span.setAttribute("operation", op);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return average time (ms) calls of the operation have waited.
+     */
+    public double getAverageWait(Operation op) {
+        return buckets.get(op).getAverageWait();
+    }
+
+    /**
+     * @return the longest time (ms) a call of the operation has waited.
+     */
+    public long getMaxWait(Operation op) {
+        return buckets.get(op).getMaxWait();
+    }
+
+    /**
+     * Summary for the management page of the operations that have had to wait,
+     * e.g. "CREATE 120/900 ms" for the average and longest wait.
+     */
+    public String getSummary() {
+        List<String> parts = new ArrayList<String>();
+        for (Operation op : Operation.values()) {
+            TokenBucket bucket = buckets.get(op);
+            if (bucket.getMaxWait() > 0)
+                parts.add(String.format("%s %d/%d ms", op, Math.round(bucket.getAverageWait()), bucket.getMaxWait()));
+        }
+        return Joiner.on(", ").join(parts);
+    }
+
+    /**
+     * Tokens accrue at a fixed rate up to the burst size; each call takes one.
+     */
+    static class TokenBucket {
+        /**
+         * No rate, so calls never wait, rather than wait forever for a token that never accrues.
+         */
+        private final boolean unlimited;
+        private final double perMilli;
+        private final double burst;
+
+        private double tokens;
+        private long refilledAt;
+        private int criticalWaiting;
+
+        private long calls;
+        private long totalWait;
+        private long maxWait;
+
+        TokenBucket(int rate, int burst) {
+            this.unlimited = rate <= 0;
+            this.perMilli = rate / 1000.0;
+            this.burst = Math.max(burst, 1);
+            this.tokens = this.burst;
+            this.refilledAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return how long (ms) the caller waited.
+         */
+        synchronized long acquire(boolean critical) throws InterruptedException {
+            long start = System.currentTimeMillis();
+            if (critical)
+                criticalWaiting++;
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    if (tryAcquire(critical, now))
+                        break;
+                    wait(Math.max(getDelay(now), 1));
+                }
+            } finally {
+                if (critical)
+                    criticalWaiting--;
+                // A critical caller leaving may let others go.
+                notifyAll();
+            }
+
+            long waited = System.currentTimeMillis() - start;
+            calls++;
+            totalWait += waited;
+            maxWait = Math.max(maxWait, waited);
+            return waited;
+        }
+
+        /**
+         * Take a token if there is one, unless a critical caller is waiting for it.
+         */
+        synchronized boolean tryAcquire(boolean critical, long now) {
+            if (unlimited)
+                return true;
+            refill(now);
+            if (tokens < 1 || (!critical && criticalWaiting > 0))
+                return false;
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * @return ms until the next token.
+         */
+        synchronized long getDelay(long now) {
+            if (unlimited)
+                return 0;
+            refill(now);
+            if (tokens >= 1)
+                return 0;
+            return (long) Math.ceil((1 - tokens) / perMilli);
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * perMilli);
+                refilledAt = now;
+            }
+        }
+
+        synchronized double getAverageWait() {
+            return calls == 0 ? 0 : (double) totalWait / calls;
+        }
+
+        synchronized long getMaxWait() {
+            return maxWait;
+        }
+    }
+}
@@ -9,10 +9,20 @@ import com.github.dockerjava.api.model.Image;
 import com.github.dockerjava.api.model.Version;
 import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.core.SSLConfig;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import com.nirima.jenkins.plugins.docker.forecast.DemandForecaster;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
+import com.nirima.jenkins.plugins.docker.tracing.TracingDockerCmdExecFactory;
+import com.nirima.jenkins.plugins.docker.workspace.DockerWorkspaces;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
@@ -24,13 +34,21 @@ import hudson.util.StreamTaskListener;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.net.URL;
+import java.security.GeneralSecurityException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,16 +68,33 @@ public class DockerCloud extends Cloud {
     public final int connectTimeout;
     public final int readTimeout;
 
+    /**
+     * Disk budget (MB) for images on the host; 0 for no limit.
+     */
+    public final int imageDiskBudgetMb;
+
+    /**
+     * Cores of each NUMA node of the host, e.g. "0-15,32-47;16-31,48-63"; empty if not known.
+     */
+    public final String numaTopology;
+
 
     private transient DockerClient dockerClient;
+    private transient DockerClientConfig dockerClientConfig;
 
-    /* Track the count per-AMI identifiers for AMIs currently being
-     * provisioned, but not necessarily reported yet by docker.
+    /**
+     * Client the templates create and start containers with, as their container and host
+     * configuration is built in its model.
+     */
+    private transient com.nirima.docker.client.DockerClient provisioningClient;
+
+    /**
+     * cloud name -> slaves that missed their provisioning deadline.
      */
-    private static HashMap<String, Integer> provisioningAmis = new HashMap<String, Integer>();
+    private static final ConcurrentHashMap<String, AtomicInteger> provisionTimeouts = new ConcurrentHashMap<String, AtomicInteger>();
 
     @DataBoundConstructor
-    public DockerCloud(String name, List<? extends DockerTemplate> templates, String serverUrl, String containerCapStr, int connectTimeout, int readTimeout) {
+    public DockerCloud(String name, List<? extends DockerTemplate> templates, String serverUrl, String containerCapStr, int connectTimeout, int readTimeout, String imageDiskBudgetStr, String numaTopology) {
         super(name);
 
         Preconditions.checkNotNull(serverUrl);
@@ -80,6 +115,14 @@ public class DockerCloud extends Cloud {
             this.containerCap = Integer.parseInt(containerCapStr);
         }
 
+        if(imageDiskBudgetStr == null || imageDiskBudgetStr.equals("")) {
+            this.imageDiskBudgetMb = 0;
+        } else {
+            this.imageDiskBudgetMb = Integer.parseInt(imageDiskBudgetStr);
+        }
+
+        this.numaTopology = Util.fixEmptyAndTrim(numaTopology);
+
         readResolve();
     }
 
@@ -91,6 +134,21 @@ public class DockerCloud extends Cloud {
         }
     }
 
+    public String getImageDiskBudgetStr() {
+        if (imageDiskBudgetMb==0) {
+            return "";
+        } else {
+            return String.valueOf(imageDiskBudgetMb);
+        }
+    }
+
+    /**
+     * @return the image disk budget in bytes, or 0 if there is none.
+     */
+    public long getImageDiskBudget() {
+        return imageDiskBudgetMb * 1024L * 1024L;
+    }
+
     protected Object readResolve() {
         for (DockerTemplate template : templates)
             template.setDockerCloud(this);
@@ -104,15 +162,34 @@ public class DockerCloud extends Cloud {
      */
 
     public List<Container> listContainers() {
-        return (List<Container>) dockerClient.listContainersCmd();
+        return listContainers(false);
+    }
+
+    /**
+     * @param all include stopped containers
+     */
+    public List<Container> listContainers(boolean all) {
+        DockerHostHealth health = DockerHostHealth.get(this);
+        DockerApiGovernor.get(this).acquire(DockerApiGovernor.Operation.LIST);
+        long start = System.currentTimeMillis();
+        try {
+            List<Container> containers = getDockerClient().listContainersCmd().withShowAll(all).exec();
+            health.recordSuccess(System.currentTimeMillis() - start);
+            return containers;
+        } catch (RuntimeException ex) {
+            health.recordFailure(System.currentTimeMillis() - start);
+            throw ex;
+        }
     }
 
     public void stopContainer(String stopId) {
-        dockerClient.stopContainerCmd(stopId);
+        DockerApiGovernor.get(this).acquire(DockerApiGovernor.Operation.CREATE, DockerApiGovernor.Priority.CRITICAL);
+        getDockerClient().stopContainerCmd(stopId).exec();
     }
 
     public List<Image> listImages() {
-        return (List<Image>) dockerClient.listImagesCmd();
+        DockerApiGovernor.get(this).acquire(DockerApiGovernor.Operation.LIST);
+        return getDockerClient().listImagesCmd().exec();
     }
 
     public InspectContainerCmd inspectContainer(String containerId) {
@@ -128,77 +205,116 @@ public class DockerCloud extends Cloud {
         builder.withUri(serverUrl);
 
         if (readTimeout > 0)
-            builder.withReadTimeout(readTimeout);
+            builder.withReadTimeout(readTimeout * 1000);
 
         DockerClientConfig config = builder.build();
+        dockerClientConfig = config;
 
-        dockerClient = DockerClientImpl.getInstance(config);
+        dockerClient = DockerClientImpl.getInstance(config)
+                .withDockerCmdExecFactory(new TracingDockerCmdExecFactory());
 
         return dockerClient;
 
     }
 
-
     /**
-     * Decrease the count of slaves being "provisioned".
+     * For calls made without the client: the socket factory holding the client's certificates.
+     *
+     * @return null if the client has no TLS configuration.
      */
-    private void decrementAmiSlaveProvision(String ami) {
-        synchronized (provisioningAmis) {
-            int currentProvisioning;
-            try {
-                currentProvisioning = provisioningAmis.get(ami);
-            } catch(NullPointerException npe) {
-                return;
-            }
-            provisioningAmis.put(ami, Math.max(currentProvisioning - 1, 0));
+    public synchronized SSLSocketFactory getSslSocketFactory() throws IOException {
+        getDockerClient();
+        SSLConfig sslConfig = dockerClientConfig.getSslConfig();
+        if (sslConfig == null)
+            return null;
+        try {
+            SSLContext context = sslConfig.getSSLContext();
+            return context == null ? null : context.getSocketFactory();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Failed to set up TLS for " + name, ex);
         }
     }
 
+    public synchronized com.nirima.docker.client.DockerClient getProvisioningClient() {
+        if (provisioningClient == null)
+            provisioningClient = com.nirima.docker.client.DockerClient.builder().withUrl(serverUrl).build();
+        return provisioningClient;
+    }
+
+
+    /**
+     * Not synchronized: slaves may be placed on other clouds, whose reservations lock them.
+     */
     @Override
-    public synchronized Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
+    public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
+        // NodeProvisioner doesn't count slaves the forecaster has started ahead of demand.
+        int ahead = DemandForecaster.getStartingAhead(label);
+        if (ahead > 0) {
+            LOGGER.log(Level.INFO, ahead + " executors for " + label + " already starting ahead of demand");
+            excessWorkload -= ahead;
+            if (excessWorkload <= 0)
+                return Collections.emptyList();
+        }
+        return startSlaves(label, excessWorkload);
+    }
+
+    /**
+     * Start slaves for the label as {@link #provision} does, without allowing for those already
+     * started ahead of demand.
+     */
+    public Collection<NodeProvisioner.PlannedNode> startSlaves(Label label, int excessWorkload) {
+        final Span provisionSpan = Tracing.start("docker.provision")
+                .setAttribute("cloud", name)
+                .setAttribute("label", label)
+                .setAttribute("excessWorkload", excessWorkload);
         try {
 
             LOGGER.log(Level.INFO, "Excess workload after pending Spot instances: " + excessWorkload);
 
+            if (!DockerHostHealth.get(this).isAvailable()) {
+                LOGGER.log(Level.INFO, "Not provisioning on " + name + ", the host is " + DockerHostHealth.get(this).getSummary());
+                return Collections.emptyList();
+            }
+
             List<NodeProvisioner.PlannedNode> r = new ArrayList<NodeProvisioner.PlannedNode>();
 
-            final DockerTemplate t = getTemplate(label);
+            // Each cloud able to serve the label offers to, so the label isn't starved when the
+            // best placed one turns it down; start the slaves on the best that will take them.
+            List<DockerCloud> candidates = DockerAffinity.getCandidates(this, label);
 
             while (excessWorkload>0) {
 
-                if (!addProvisionedSlave(t.image, t.instanceCap)) {
+                DockerCloud target = null;
+                ContainerPlacement reserved = null;
+                for (Iterator<DockerCloud> it = candidates.iterator(); it.hasNext() && reserved == null; ) {
+                    DockerCloud candidate = it.next();
+                    DockerTemplate candidateTemplate = candidate.getTemplate(label);
+                    try {
+                        if (candidateTemplate != null)
+                            reserved = candidate.reserve(candidateTemplate);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to reserve room on " + candidate.name, e);
+                    }
+                    if (reserved == null)
+                        it.remove(); // no room there for the rest of this round either
+                    else
+                        target = candidate;
+                }
+                if (reserved == null) {
                     break;
                 }
 
+                final DockerCloud cloud = target;
+                final DockerTemplate t = cloud.getTemplate(label);
+                final ContainerPlacement placement = reserved;
+                DockerAffinity.recordPlacement(cloud, label, t);
+                DockerLifecycleJournal.get().record(LifecycleEvent.Type.REQUESTED, cloud, t, null, null);
+
+                final Label requested = label;
                 r.add(new NodeProvisioner.PlannedNode(t.getDisplayName(),
                         Computer.threadPoolForRemoting.submit(new Callable<Node>() {
                             public Node call() throws Exception {
-                                // TODO: record the output somewhere
-                                DockerSlave slave = null;
-                                try {
-                                    slave = t.provision(new StreamTaskListener(System.out));
-                                    Jenkins.getInstance().addNode(slave);
-                                    // Docker instances may have a long init script. If we declare
-                                    // the provisioning complete by returning without the connect
-                                    // operation, NodeProvisioner may decide that it still wants
-                                    // one more instance, because it sees that (1) all the slaves
-                                    // are offline (because it's still being launched) and
-                                    // (2) there's no capacity provisioned yet.
-                                    //
-                                    // deferring the completion of provisioning until the launch
-                                    // goes successful prevents this problem.
-                                    slave.toComputer().connect(false).get();
-                                    return slave;
-                                }
-                                catch(Exception ex) {
-                                    LOGGER.log(Level.SEVERE, "Error in provisioning; slave=" + slave + ", template=" + t);
-
-                                    ex.printStackTrace();
-                                    throw Throwables.propagate(ex);
-                                }
-                                finally {
-                                    decrementAmiSlaveProvision(t.image);
-                                }
+                                return cloud.provisionSlave(t, requested, placement, provisionSpan, true);
                             }
                         })
                         ,t.getNumExecutors()));
@@ -208,14 +324,274 @@ public class DockerCloud extends Cloud {
             }
             return r;
         } catch (Exception e) {
-            LOGGER.log(Level.WARNING,"Failed to count the # of live instances on Docker",e);
+            LOGGER.log(Level.WARNING, "Failed to provision on " + name, e);
+            provisionSpan.setError(e);
             return Collections.emptyList();
+        } finally {
+            provisionSpan.end();
+        }
+    }
+
+    /**
+     * Set aside room on the host for a slave of the template.
+     *
+     * @return null if there is none.
+     */
+    private synchronized ContainerPlacement reserve(DockerTemplate t) throws Exception {
+        if (!DockerHostCapacity.get(this).tryReserve(this, t)) {
+            return null;
+        }
+
+        // One listing serves the fair share and the caps.
+        List<Container> containers = t.instanceCap != 0 || containerCap != Integer.MAX_VALUE ? listContainers() : null;
+        if (containerCap != Integer.MAX_VALUE && !DockerFairShare.allows(this, t, containers)) {
+            DockerHostCapacity.get(this).release(t);
+            return null;
+        }
+
+        ProvisioningLeases.Lease lease = null;
+        if (t.instanceCap != 0) {
+            lease = leaseSlave(t, containers);
+            if (lease == null) {
+                DockerHostCapacity.get(this).release(t);
+                return null;
+            }
         }
+
+        DockerCpuAllocator.Allocation allocation = null;
+        if (t.getCpuPinning() != DockerCpuAllocator.Mode.NONE) {
+            allocation = DockerCpuAllocator.get().allocate(this, t);
+            if (allocation == null) {
+                DockerHostCapacity.get(this).release(t);
+                ProvisioningLeases.get().release(lease);
+                return null;
+            }
+        }
+
+        return new ContainerPlacement(allocation, t.hasTmpfs() ? DockerTmpfs.newDir() : null, lease);
+    }
+
+    /**
+     * Start a slave in the room set aside for it, and wait for it to come online, for no
+     * longer than the template's provisioning deadline from creating its container.
+     *
+     * @param mayRetry whether a slave that misses the deadline may be tried on another cloud
+     */
+    private Node provisionSlave(DockerTemplate t, Label label, ContainerPlacement placement, Span parent, boolean mayRetry) throws Exception {
+        long deadline = System.currentTimeMillis() + t.getProvisionTimeoutMillis();
+        // TODO: record the output somewhere
+        DockerSlave slave = null;
+        boolean reserved = true;
+        boolean timedOut = false;
+        Span span = Tracing.start("docker.provision.slave", parent)
+                .setAttribute("cloud", name)
+                .setAttribute("image", t.image);
+        try {
+            try {
+                slave = create(t, placement, span, deadline);
+            } catch (TimeoutException ex) {
+                timedOut = true;
+                throw ex;
+            }
+            ProvisioningLeases.get().attach(placement.lease, slave.containerId);
+            slave.setTraceSpan(span);
+            DockerNodeBatcher.get().add(slave).await();
+            // Now a node, so its resources are counted from the template.
+            DockerHostCapacity.get(this).release(t);
+            reserved = false;
+            // Docker instances may have a long init script. If we declare
+            // the provisioning complete by returning without the connect
+            // operation, NodeProvisioner may decide that it still wants
+            // one more instance, because it sees that (1) all the slaves
+            // are offline (because it's still being launched) and
+            // (2) there's no capacity provisioned yet.
+            //
+            // deferring the completion of provisioning until the launch
+            // goes successful prevents this problem.
+            Future<?> launch = slave.toComputer().connect(false);
+            try {
+                launch.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                timedOut = true;
+                launch.cancel(true);
+                throw ex;
+            }
+            return slave;
+        }
+        catch(Exception ex) {
+            LOGGER.log(Level.SEVERE, "Error in provisioning; slave=" + slave + ", template=" + t, ex);
+            span.setError(ex);
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.FAILED, this, t,
+                    slave == null ? null : slave.containerId, timedOut ? "timed out after " + t.getProvisionTimeoutMillis() + "ms" : String.valueOf(ex));
+
+            // Nothing else will remove a slave that never came online; terminating it gives the
+            // cores and tmpfs back. A container still being created past the deadline gives them
+            // back when it is removed.
+            if (slave != null) {
+                try {
+                    slave.terminate();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to remove " + slave.getNodeName() + " after provisioning failed", e);
+                }
+            } else if (!timedOut) {
+                releasePlacement(t, placement);
+            }
+
+            if (timedOut) {
+                getProvisionTimeoutCount(name).incrementAndGet();
+
+                if (mayRetry && t.retryOnTimeout) {
+                    Node retried = retryElsewhere(label, span);
+                    if (retried != null)
+                        return retried;
+                }
+            }
+
+            throw Throwables.propagate(ex);
+        }
+        finally {
+            if (reserved)
+                DockerHostCapacity.get(this).release(t);
+            ProvisioningLeases.get().release(placement.lease);
+            span.end();
+        }
+    }
+
+    /**
+     * Create the slave's container, waiting for it no longer than the deadline. One created
+     * after that is removed as soon as it is.
+     */
+    private DockerSlave create(final DockerTemplate t, final ContainerPlacement placement, final Span parent, long deadline) throws Exception {
+        final Future<DockerSlave> creating = Computer.threadPoolForRemoting.submit(new Callable<DockerSlave>() {
+            public DockerSlave call() throws Exception {
+                Span span = Tracing.start("docker.provision.create", parent);
+                try {
+                    return t.provision(new StreamTaskListener(System.out), placement);
+                } finally {
+                    span.end();
+                }
+            }
+        });
+        try {
+            return creating.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        } catch (TimeoutException ex) {
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    removeLate(creating, t, placement);
+                }
+            });
+            throw ex;
+        }
+    }
+
+    /**
+     * Wait for a container that missed its deadline to be created, and remove it.
+     */
+    private void removeLate(Future<DockerSlave> creating, DockerTemplate t, ContainerPlacement placement) {
+        DockerSlave slave;
+        try {
+            slave = creating.get();
+        } catch (Exception ex) {
+            releasePlacement(t, placement);
+            return;
+        }
+
+        LOGGER.log(Level.INFO, "Removing container " + slave.containerId + " on " + name + ", created after its provisioning deadline");
+        try {
+            DockerApiGovernor.get(this).acquire(DockerApiGovernor.Operation.CREATE, DockerApiGovernor.Priority.CRITICAL);
+            DockerClient client = getDockerClient();
+            client.stopContainerCmd(slave.containerId).exec();
+            client.removeContainerCmd(slave.containerId).withRemoveVolumes(true).exec();
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.REMOVED, slave, "created after the provisioning deadline");
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to remove container " + slave.containerId + " on " + name, ex);
+        }
+        DockerCpuAllocator.get().release(this, slave.containerId);
+        if (placement.tmpfsDir != null)
+            DockerTmpfs.remove(this, t.image, placement.tmpfsDir);
+    }
+
+    /**
+     * Give back the cores and tmpfs set aside for a container that was never created.
+     */
+    private void releasePlacement(DockerTemplate t, ContainerPlacement placement) {
+        if (placement.cpus != null)
+            DockerCpuAllocator.get().release(this, placement.cpus);
+        if (placement.tmpfsDir != null)
+            DockerTmpfs.remove(this, t.image, placement.tmpfsDir);
+    }
+
+    /**
+     * Provision a slave for the label on the first other cloud that has room, once.
+     *
+     * @return null if no other cloud could.
+     */
+    private Node retryElsewhere(Label label, Span parent) throws Exception {
+        for (DockerCloud other : PluginImpl.getInstance().getServers()) {
+            if (other == this || !DockerHostHealth.get(other).isAvailable())
+                continue;
+            DockerTemplate t = other.getTemplate(label);
+            if (t == null)
+                continue;
+            ContainerPlacement placement = other.reserve(t);
+            if (placement == null)
+                continue;
+
+            LOGGER.log(Level.INFO, "Retrying provisioning for " + label + " on " + other.name + " after timing out on " + name);
+            DockerAffinity.recordPlacement(other, label, t);
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.REQUESTED, other, t, null, "retry after timeout on " + name);
+            return other.provisionSlave(t, label, placement, parent, false);
+        }
+        return null;
+    }
+
+    private static AtomicInteger getProvisionTimeoutCount(String cloudName) {
+        AtomicInteger count = provisionTimeouts.get(cloudName);
+        if (count == null) {
+            provisionTimeouts.putIfAbsent(cloudName, new AtomicInteger());
+            count = provisionTimeouts.get(cloudName);
+        }
+        return count;
+    }
+
+    /**
+     * @return how many slaves have missed their provisioning deadline on this cloud since startup.
+     */
+    public int getProvisionTimeouts() {
+        return getProvisionTimeoutCount(name).get();
     }
 
     @Override
     public boolean canProvision(Label label) {
-        return getTemplate(label)!=null;
+        DockerTemplate t = getTemplate(label);
+        if (t == null)
+            return false;
+
+        // Wait for the host to recover rather than time out on every queue tick.
+        if (!DockerHostHealth.get(this).isAvailable())
+            return false;
+
+        // Let the host that has the waiting jobs' workspaces start their slaves.
+        if (t.isPersistentWorkspace() && DockerWorkspaces.get().isPreferredElsewhere(this, label))
+            return false;
+
+        // Offer even if another cloud is better placed; provision() starts it there first.
+        return true;
+    }
+
+    /**
+     * @return null if there is no template with the id.
+     */
+    public DockerTemplate getTemplateById(String templateId) {
+        for (DockerTemplate t : templates) {
+            if (t.getTemplateId().equals(templateId)) {
+                return t;
+            }
+        }
+        return null;
     }
 
     public DockerTemplate getTemplate(String template) {
@@ -256,103 +632,46 @@ public class DockerCloud extends Cloud {
     }
 
     /**
-     * Counts the number of instances in Docker currently running that are using the specifed image.
+     * Counts the number of containers in Docker currently running one of our templates' images.
      *
-     * @param ami If AMI is left null, then all instances are counted.
+     * @param ami If AMI is left null, then containers of all templates are counted.
      * <p>
-     * This includes those instances that may be started outside Hudson.
+     * This includes those containers that may be started outside Hudson, but not
+     * containers of images we have no template for.
      */
     public int countCurrentDockerSlaves(String ami) throws Exception {
+        return countCurrentDockerSlaves(listContainers(), ami);
+    }
 
-        List<Container> containers = ((List<Container>) dockerClient.listContainersCmd());
-
-        if (ami == null)
-            return containers.size();
-
-        List<Image> images = (List<Image>) dockerClient.listImagesCmd();
-
-
-        LOGGER.log(Level.INFO, "Images found: " + images);
-
-        if (images.size() == 0) {
-            // TODO implement that
-            throw new NotImplementedException();
-            /*
-            LOGGER.log(Level.INFO, "Pulling image " + ami + " since one was not found.  This may take awhile...");
-            //Identifier amiId = Identifier.fromCompoundString(ami);
-            //InputStream imageStream = dockerClient.pullImageCmd(amiId.toString());
-            //int streamValue = 0;
-            //while (streamValue != -1) {
-            //    streamValue = imageStream.read();
-            //}
-            //imageStream.close();
-            LOGGER.log(Level.INFO, "Finished pulling image " + ami);
-            */
+    private int countCurrentDockerSlaves(List<Container> containers, String ami) {
+        Set<String> images = new HashSet<String>();
+        if (ami != null) {
+            images.add(DockerImageUsage.normalize(ami));
+        } else {
+            for (DockerTemplate t : templates)
+                images.add(DockerImageUsage.normalize(t.image));
         }
 
-        //TODO see if its important
-/*
-        final SearchImagesCmd ir = dockerClient.searchImagesCmd(ami);
-        Collection<Container> matching = Collections2.filter(containers, new Predicate<Container>() {
-            public boolean apply(@Nullable Container container) {
-                InspectContainerResponse cis = dockerClient.inspectContainerCmd(container.getId()).exec();
-                return (cis.getImageId().equalsIgnoreCase(ir.getId()));
-            }
-        });*/
-        return 0;
+        int count = 0;
+        for (Container container : containers) {
+            if (images.contains(DockerImageUsage.normalize(container.getImage())))
+                count++;
+        }
+        return count;
     }
 
     /**
-     * Check not too many already running.
+     * Check not too many already running, and take a lease on one more.
      *
+     * @return null if there are too many.
      */
-    private synchronized boolean addProvisionedSlave(String ami, int amiCap) throws Exception {
-        if( amiCap == 0 )
-            return true;
-
-        int estimatedTotalSlaves = countCurrentDockerSlaves(null);
-        int estimatedAmiSlaves = countCurrentDockerSlaves(ami);
-
-        synchronized (provisioningAmis) {
-            int currentProvisioning;
+    private synchronized ProvisioningLeases.Lease leaseSlave(DockerTemplate t, List<Container> containers) {
+        int estimatedTotalSlaves = countCurrentDockerSlaves(containers, null);
+        int estimatedAmiSlaves = countCurrentDockerSlaves(containers, t.image);
 
-            for (int amiCount : provisioningAmis.values()) {
-                estimatedTotalSlaves += amiCount;
-            }
-            try {
-                currentProvisioning = provisioningAmis.get(ami);
-            }
-            catch (NullPointerException npe) {
-                currentProvisioning = 0;
-            }
-
-            estimatedAmiSlaves += currentProvisioning;
-
-            if(estimatedTotalSlaves >= containerCap) {
-                LOGGER.log(Level.INFO, "Total container cap of " + containerCap +
-                        " reached, not provisioning.");
-                return false;      // maxed out
-            }
-
-            if (estimatedAmiSlaves >= amiCap) {
-                LOGGER.log(Level.INFO, "AMI Instance cap of " + amiCap +
-                        " reached for ami " + ami +
-                        ", not provisioning.");
-                return false;      // maxed out
-            }
-
-            LOGGER.log(Level.INFO,
-                    "Provisioning for AMI " + ami + "; " +
-                            "Estimated number of total slaves: "
-                            + String.valueOf(estimatedTotalSlaves) + "; " +
-                            "Estimated number of slaves for ami "
-                            + ami + ": "
-                            + String.valueOf(estimatedAmiSlaves)
-            );
-
-            provisioningAmis.put(ami, currentProvisioning + 1);
-            return true;
-        }
+        // Long enough for provisioning to reach its own deadline and give the lease back.
+        long ttl = t.getProvisionTimeoutMillis() + TimeUnit.MINUTES.toMillis(1);
+        return ProvisioningLeases.get().tryAcquire(name, t.image, estimatedTotalSlaves, estimatedAmiSlaves, containerCap, t.instanceCap, ttl);
     }
 
     @Extension
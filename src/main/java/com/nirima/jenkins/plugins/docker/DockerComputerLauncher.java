@@ -4,11 +4,17 @@ package com.nirima.jenkins.plugins.docker;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.google.common.base.Preconditions;
 import com.nirima.docker.client.model.ContainerInspectResponse;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
 import com.nirima.jenkins.plugins.docker.utils.RetryingComputerLauncher;
+import hudson.model.Node;
+import hudson.model.TaskListener;
 import hudson.plugins.sshslaves.SSHLauncher;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.DelegatingComputerLauncher;
+import hudson.slaves.SlaveComputer;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -29,6 +35,28 @@ public class DockerComputerLauncher extends DelegatingComputerLauncher {
         super(makeLauncher(template, containerInspectResponse));
     }
 
+    @Override
+    public void launch(SlaveComputer computer, TaskListener listener) throws IOException, InterruptedException {
+        Node node = computer.getNode();
+        // After a restart, don't launch a slave whose container has gone away meanwhile.
+        if (node instanceof DockerSlave && !DockerSlaveReconciler.awaitReconciled((DockerSlave) node)) {
+            listener.getLogger().println("Container " + ((DockerSlave) node).containerId + " is no longer running; not launching");
+            return;
+        }
+
+        // Carry on the trace of the provisioning that created the slave, if it's still around.
+        Span parent = node instanceof DockerSlave ? ((DockerSlave) node).getTraceSpan() : null;
+        Span span = Tracing.start("docker.launch", parent).setAttribute("node", computer.getName());
+        try {
+            super.launch(computer, listener);
+        } catch (IOException ex) {
+            span.setError(ex);
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
     private static ComputerLauncher makeLauncher(DockerTemplate template, ContainerInspectResponse containerInspectResponse) {
         SSHLauncher sshLauncher = getSSHLauncher(containerInspectResponse, template);
         return new RetryingComputerLauncher(sshLauncher);
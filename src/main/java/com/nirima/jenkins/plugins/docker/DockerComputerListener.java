@@ -1,5 +1,7 @@
 package com.nirima.jenkins.plugins.docker;
 
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
 import hudson.Extension;
 import hudson.model.Computer;
 import hudson.model.TaskListener;
@@ -12,6 +14,10 @@ public class DockerComputerListener extends ComputerListener {
     public void onOnline(Computer c, TaskListener listener) {
         if(c instanceof DockerComputer){
             ((DockerComputer) c).onConnected();
+
+            DockerSlave slave = ((DockerComputer) c).getNode();
+            if (slave != null)
+                DockerLifecycleJournal.get().record(LifecycleEvent.Type.ONLINE, slave, null);
         }
     }
 }
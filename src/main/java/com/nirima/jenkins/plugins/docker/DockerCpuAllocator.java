@@ -0,0 +1,368 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import hudson.XmlFile;
+import hudson.model.Node;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out the cores of each docker host to the containers of templates that ask to be pinned.
+ *
+ * Exclusive allocations get cores nobody else is using; shared allocations get the least
+ * loaded cores that are not held exclusively. Either way all the cores of an allocation
+ * come from one NUMA node, so that a build's threads share caches. The container's memory is
+ * only bound to that node's memory when the host runs the lxc exec driver; the remote API has
+ * no setting for it, so with the native driver only the cores are pinned.
+ *
+ * Allocations are persisted, so that containers which survive a restart keep their cores.
+ */
+public class DockerCpuAllocator implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DockerCpuAllocator.class.getName());
+
+    /**
+     * How long a claimed allocation may wait for its slave to appear before it is considered orphaned (ms).
+     */
+    private static final long GRACE = 5 * 60 * 1000;
+
+    /**
+     * How a template's containers are pinned.
+     */
+    public enum Mode {
+        NONE("No pinning"),
+        SHARED("Shared cores"),
+        EXCLUSIVE("Exclusive cores");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static DockerCpuAllocator instance;
+
+    /**
+     * cloud name -> allocations on that host.
+     */
+    private final Map<String, List<Allocation>> allocations = new HashMap<String, List<Allocation>>();
+
+    public static synchronized DockerCpuAllocator get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DockerCpuAllocator load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DockerCpuAllocator) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new DockerCpuAllocator();
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-cpu-allocations.xml"));
+    }
+
+    protected Object readResolve() {
+        // Allocations that were never claimed belonged to provisioning that didn't survive the restart.
+        for (List<Allocation> list : allocations.values()) {
+            for (Iterator<Allocation> it = list.iterator(); it.hasNext(); ) {
+                if (it.next().containerId == null)
+                    it.remove();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Pick cores for a new container of the template.
+     *
+     * @return the allocation, or null if the host has no room for it.
+     */
+    public Allocation allocate(DockerCloud cloud, DockerTemplate template) throws IOException {
+        // May ask the host; other clouds' allocations and releases needn't wait on it.
+        List<int[]> nodes = getTopology(cloud);
+        return allocate(cloud, template, nodes);
+    }
+
+    private synchronized Allocation allocate(DockerCloud cloud, DockerTemplate template, List<int[]> nodes) {
+        List<Allocation> held = getAllocations(cloud);
+        prune(cloud, held);
+
+        boolean exclusive = template.getCpuPinning() == Mode.EXCLUSIVE;
+        int count = Math.max(template.cpuCount, 1);
+
+        Map<Integer, Integer> load = new HashMap<Integer, Integer>();
+        Set<Integer> reserved = new HashSet<Integer>();
+        for (Allocation allocation : held) {
+            for (int core : allocation.cores) {
+                if (allocation.exclusive)
+                    reserved.add(core);
+                Integer current = load.get(core);
+                load.put(core, current == null ? 1 : current + 1);
+            }
+        }
+
+        int bestNode = -1;
+        int[] bestCores = null;
+        int bestScore = Integer.MAX_VALUE;
+
+        for (int node = 0; node < nodes.size(); node++) {
+            List<Integer> candidates = new ArrayList<Integer>();
+            for (int core : nodes.get(node)) {
+                if (reserved.contains(core))
+                    continue;
+                if (exclusive && load.containsKey(core))
+                    continue;
+                candidates.add(core);
+            }
+            if (candidates.size() < count)
+                continue;
+
+            int score;
+            if (exclusive) {
+                // Best fit: fill up the node with the fewest free cores, leaving whole nodes for big requests.
+                score = candidates.size();
+            } else {
+                sortByLoad(candidates, load);
+                score = 0;
+                for (int i = 0; i < count; i++)
+                    score += get(load, candidates.get(i));
+            }
+
+            if (score < bestScore) {
+                bestScore = score;
+                bestNode = node;
+                bestCores = new int[count];
+                for (int i = 0; i < count; i++)
+                    bestCores[i] = candidates.get(i);
+            }
+        }
+
+        if (bestCores == null) {
+            LOGGER.log(Level.INFO, "No " + (exclusive ? "exclusive" : "shared") + " set of " + count
+                    + " cores free on " + cloud.name + " for " + template.image + "; not provisioning.");
+            return null;
+        }
+
+        Allocation allocation = new Allocation(bestCores, nodes.size() > 1 ? bestNode : -1, exclusive);
+        held.add(allocation);
+        return allocation;
+    }
+
+    /**
+     * Record the container that was started with the allocation.
+     */
+    public synchronized void claim(Allocation allocation, String containerId) {
+        allocation.containerId = containerId;
+        allocation.claimedAt = System.currentTimeMillis();
+        save();
+    }
+
+    /**
+     * Give back an allocation whose container never started.
+     */
+    public synchronized void release(DockerCloud cloud, Allocation allocation) {
+        if (getAllocations(cloud).remove(allocation) && allocation.containerId != null)
+            save();
+    }
+
+    /**
+     * Give back the cores of a container that is going away.
+     */
+    public synchronized void release(DockerCloud cloud, String containerId) {
+        for (Iterator<Allocation> it = getAllocations(cloud).iterator(); it.hasNext(); ) {
+            if (containerId.equals(it.next().containerId)) {
+                it.remove();
+                save();
+                return;
+            }
+        }
+    }
+
+    public synchronized void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save CPU allocations", e);
+        }
+    }
+
+    /**
+     * Drop allocations of containers that are no longer slaves, e.g. terminated while we weren't looking.
+     */
+    private void prune(DockerCloud cloud, List<Allocation> held) {
+        Set<String> running = new HashSet<String>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof DockerSlave)
+                running.add(((DockerSlave) node).containerId);
+        }
+
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (Iterator<Allocation> it = held.iterator(); it.hasNext(); ) {
+            Allocation allocation = it.next();
+            if (allocation.containerId != null && !running.contains(allocation.containerId)
+                    && now - allocation.claimedAt > GRACE) {
+                LOGGER.log(Level.FINE, "Releasing cores of " + allocation.containerId + " on " + cloud.name);
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed)
+            save();
+    }
+
+    private List<Allocation> getAllocations(DockerCloud cloud) {
+        List<Allocation> list = allocations.get(cloud.name);
+        if (list == null) {
+            list = new ArrayList<Allocation>();
+            allocations.put(cloud.name, list);
+        }
+        return list;
+    }
+
+    /**
+     * The cores of each NUMA node of the host: from the cloud's configuration, or else
+     * a single node of all the cores docker reports.
+     */
+    private static List<int[]> getTopology(DockerCloud cloud) throws IOException {
+        if (!Strings.isNullOrEmpty(cloud.numaTopology))
+            return parseTopology(cloud.numaTopology);
+
+        int cpus = DockerHostCapacity.get(cloud).getCpuCount(cloud);
+        int[] cores = new int[cpus];
+        for (int i = 0; i < cpus; i++)
+            cores[i] = i;
+        return Collections.singletonList(cores);
+    }
+
+    /**
+     * Parse a topology such as "0-15,32-47;16-31,48-63": one cpu list per node, separated by ';'.
+     */
+    public static List<int[]> parseTopology(String topology) {
+        List<int[]> nodes = new ArrayList<int[]>();
+        for (String node : topology.split(";")) {
+            node = node.trim();
+            if (node.isEmpty())
+                continue;
+
+            List<Integer> cores = new ArrayList<Integer>();
+            for (String range : node.split(",")) {
+                range = range.trim();
+                if (range.isEmpty())
+                    continue;
+                int dash = range.indexOf('-');
+                if (dash < 0) {
+                    cores.add(Integer.parseInt(range));
+                } else {
+                    int from = Integer.parseInt(range.substring(0, dash).trim());
+                    int to = Integer.parseInt(range.substring(dash + 1).trim());
+                    for (int core = from; core <= to; core++)
+                        cores.add(core);
+                }
+            }
+
+            int[] array = new int[cores.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = cores.get(i);
+            nodes.add(array);
+        }
+        return nodes;
+    }
+
+    private static void sortByLoad(List<Integer> cores, final Map<Integer, Integer> load) {
+        Collections.sort(cores, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int diff = get(load, a) - get(load, b);
+                return diff != 0 ? diff : a - b;
+            }
+        });
+    }
+
+    private static int get(Map<Integer, Integer> load, int core) {
+        Integer current = load.get(core);
+        return current == null ? 0 : current;
+    }
+
+    /**
+     * Cores, and the memory node they belong to, held by one container.
+     */
+    public static class Allocation {
+        public final int[] cores;
+
+        /**
+         * NUMA node of the cores, or -1 if the host's topology isn't known.
+         */
+        public final int node;
+
+        public final boolean exclusive;
+
+        private String containerId;
+        private long claimedAt;
+
+        Allocation(int[] cores, int node, boolean exclusive) {
+            this.cores = cores;
+            this.node = node;
+            this.exclusive = exclusive;
+        }
+
+        public String getContainerId() {
+            return containerId;
+        }
+
+        /**
+         * @return the cores in cpuset syntax, e.g. "4,5,6,7".
+         */
+        public String getCpuset() {
+            List<Integer> list = new ArrayList<Integer>();
+            for (int core : cores)
+                list.add(core);
+            return Joiner.on(",").join(list);
+        }
+
+        /**
+         * @return the memory node in cpuset syntax, or null if it isn't known.
+         */
+        public String getMems() {
+            return node < 0 ? null : String.valueOf(node);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("cpuset", getCpuset())
+                    .add("mems", getMems())
+                    .add("exclusive", exclusive)
+                    .add("containerId", containerId)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.model.Container;
+import com.google.common.base.Objects;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import hudson.model.Label;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Divides a cloud's container cap between its templates, so that one template with a lot
+ * of jobs queued can't take all of it while others wait.
+ *
+ * Each template with containers or jobs waiting is entitled to its guaranteed minimum, and
+ * then to a share of the rest of the cap in proportion to its weight, up to what it needs.
+ * A template may start another container while it is below its share, or while the cap left
+ * over covers what every other template is still owed; otherwise the room is kept for the
+ * most under-served template, whose queue will claim it on its next provisioning tick.
+ */
+public class DockerFairShare {
+    private static final Logger LOGGER = Logger.getLogger(DockerFairShare.class.getName());
+
+    private static final double EPSILON = 1e-6;
+
+    /**
+     * A template's use of the cap, and what it is entitled to.
+     */
+    public static class Share {
+        public final DockerTemplate template;
+        public final int weight;
+        public final int minimum;
+
+        /**
+         * Containers running or being provisioned.
+         */
+        public final int used;
+
+        /**
+         * Containers more the template's queued jobs need.
+         */
+        public final int waiting;
+
+        /**
+         * Containers the template is entitled to; set by {@link #divide}.
+         */
+        double share;
+
+        public Share(DockerTemplate template, int weight, int minimum, int used, int waiting) {
+            this.template = template;
+            this.weight = Math.max(weight, 1);
+            this.minimum = Math.max(minimum, 0);
+            this.used = used;
+            this.waiting = waiting;
+        }
+
+        public double getShare() {
+            return share;
+        }
+
+        public String getLabels() {
+            return template == null ? "" : template.labelString;
+        }
+
+        /**
+         * @return how many more containers the template is entitled to.
+         */
+        int getOwed() {
+            return Math.max((int) Math.ceil(share - EPSILON) - used, 0);
+        }
+
+        /**
+         * @return how close the template is to its share; lower is more under-served.
+         */
+        double getServed() {
+            return share <= 0 ? Double.MAX_VALUE : used / share;
+        }
+
+        public String getSummary() {
+            return String.format("%d of %.1f", used, share);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("image", template == null ? null : template.image)
+                    .add("weight", weight)
+                    .add("minimum", minimum)
+                    .add("used", used)
+                    .add("waiting", waiting)
+                    .add("share", share)
+                    .toString();
+        }
+    }
+
+    /**
+     * Work out each template's share of the cap: first their minimums, then the rest by
+     * weight, never more than a template needs.
+     */
+    static void divide(List<Share> shares, int cap) {
+        double left = cap;
+        List<Share> wanting = new ArrayList<Share>();
+        for (Share s : shares) {
+            s.share = Math.min(s.minimum, s.used + s.waiting);
+            left -= s.share;
+            if (s.share < s.used + s.waiting)
+                wanting.add(s);
+        }
+
+        while (left > EPSILON && !wanting.isEmpty()) {
+            int weights = 0;
+            for (Share s : wanting)
+                weights += s.weight;
+
+            double handedOut = 0;
+            List<Share> still = new ArrayList<Share>();
+            for (Share s : wanting) {
+                double more = Math.min(left * s.weight / weights, s.used + s.waiting - s.share);
+                s.share += more;
+                handedOut += more;
+                if (s.share < s.used + s.waiting - EPSILON)
+                    still.add(s);
+            }
+            left -= handedOut;
+            wanting = still;
+        }
+    }
+
+    /**
+     * @return whether the template asking may start one more container.
+     */
+    static boolean allows(List<Share> shares, Share asking, int cap) {
+        int used = 0;
+        for (Share s : shares)
+            used += s.used;
+        int free = cap - used;
+        if (free <= 0)
+            return false;
+
+        int owedToOthers = 0;
+        Share neediest = null;
+        for (Share s : shares) {
+            if (s == asking || s.getOwed() == 0)
+                continue;
+            owedToOthers += s.getOwed();
+            if (neediest == null || s.getServed() < neediest.getServed())
+                neediest = s;
+        }
+
+        if (free > owedToOthers)
+            return true;
+        if (asking.getOwed() > 0 && (neediest == null || asking.getServed() <= neediest.getServed()))
+            return true;
+
+        LOGGER.log(Level.INFO, "Not provisioning " + asking + " while " + neediest + " is owed more of the container cap");
+        return false;
+    }
+
+    /**
+     * @return whether the cloud's cap leaves the template room for one more container, in
+     * fairness to its other templates.
+     */
+    public static boolean allows(DockerCloud cloud, DockerTemplate t, List<Container> containers) {
+        if (cloud.containerCap == Integer.MAX_VALUE)
+            return true;
+
+        List<Share> shares = getShares(cloud, containers);
+        for (Share s : shares) {
+            if (s.template == t)
+                return allows(shares, s, cloud.containerCap);
+        }
+        return true;
+    }
+
+    /**
+     * @return each of the cloud's templates' use of its cap and entitlement to it.
+     */
+    public static List<Share> getShares(DockerCloud cloud, List<Container> containers) {
+        Map<String, Integer> running = new HashMap<String, Integer>();
+        for (Container container : containers) {
+            String image = DockerImageUsage.normalize(container.getImage());
+            Integer count = running.get(image);
+            running.put(image, count == null ? 1 : count + 1);
+        }
+
+        Map<DockerTemplate, Integer> queued = new HashMap<DockerTemplate, Integer>();
+        for (Queue.BuildableItem item : Jenkins.getInstance().getQueue().getBuildableItems()) {
+            Label label = item.getAssignedLabel();
+            // Unlabelled jobs mostly run on the master; don't count them against the first template.
+            if (label == null)
+                continue;
+            DockerTemplate t = cloud.getTemplate(label);
+            if (t == null)
+                continue;
+            Integer count = queued.get(t);
+            queued.put(t, count == null ? 1 : count + 1);
+        }
+
+        List<Share> shares = new ArrayList<Share>();
+        for (DockerTemplate t : cloud.templates) {
+            Integer r = running.get(DockerImageUsage.normalize(t.image));
+            int starting = ProvisioningLeases.get().get(cloud.name, t.image);
+            int used = (r == null ? 0 : r) + starting;
+
+            Integer q = queued.get(t);
+            int executors = Math.max(t.getNumExecutors(), 1);
+            int needed = q == null ? 0 : (q + executors - 1) / executors;
+            int waiting = Math.max(needed - starting, 0);
+
+            shares.add(new Share(t, t.getShareWeight(), t.shareMinimum, used, waiting));
+        }
+        divide(shares, cloud.containerCap);
+        return shares;
+    }
+}
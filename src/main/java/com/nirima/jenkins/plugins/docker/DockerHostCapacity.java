@@ -0,0 +1,222 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.model.Info;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CPU and memory of a docker host, and how much of it our slaves have reserved.
+ *
+ * Templates declare a memory limit and CPU shares; a new container is only admitted if
+ * the host still has room for it once the running slaves and the containers being
+ * provisioned are accounted for.
+ */
+public class DockerHostCapacity {
+    private static final Logger LOGGER = Logger.getLogger(DockerHostCapacity.class.getName());
+
+    /**
+     * CPU shares docker gives one core.
+     */
+    public static final int SHARES_PER_CPU = 1024;
+
+    /**
+     * How long the host's size is trusted before asking again (ms).
+     */
+    private static final long REFRESH = Long.getLong(DockerHostCapacity.class.getName() + ".refresh", 5 * 60 * 1000);
+
+    private static final Map<String, DockerHostCapacity> CAPACITIES = new ConcurrentHashMap<String, DockerHostCapacity>();
+
+    private final String cloudName;
+
+    /**
+     * Held while asking the host its size, so provisioning and the page needn't wait on the host.
+     */
+    private final Object refreshLock = new Object();
+
+    private int totalCpuShares;
+    private long totalMemory;
+    private long fetchedAt;
+
+    private int pendingCpuShares;
+    private long pendingMemory;
+
+    private DockerHostCapacity(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    public static DockerHostCapacity get(DockerCloud cloud) {
+        DockerHostCapacity capacity = CAPACITIES.get(cloud.name);
+        if (capacity == null) {
+            synchronized (CAPACITIES) {
+                capacity = CAPACITIES.get(cloud.name);
+                if (capacity == null) {
+                    capacity = new DockerHostCapacity(cloud.name);
+                    CAPACITIES.put(cloud.name, capacity);
+                }
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Reserve room for a container of the template, unless the host is full.
+     *
+     * Templates without reservations are always admitted.
+     */
+    public boolean tryReserve(DockerCloud cloud, DockerTemplateBase template) {
+        if (template.cpuShares <= 0 && template.getReservedMemoryBytes() <= 0)
+            return true;
+
+        try {
+            refresh(cloud);
+        } catch (IOException ex) {
+            // Don't hold up provisioning because we couldn't size the host; the
+            // container caps still apply.
+            LOGGER.log(Level.WARNING, "Could not read the capacity of " + cloud.name + ", not checking reservations", ex);
+            return true;
+        }
+
+        synchronized (this) {
+            return reserve(cloud, template);
+        }
+    }
+
+    private boolean reserve(DockerCloud cloud, DockerTemplateBase template) {
+        int committedCpu = getCommittedCpuShares(cloud);
+        long committedMemory = getCommittedMemory(cloud);
+
+        if (template.cpuShares > 0 && committedCpu + template.cpuShares > totalCpuShares) {
+            LOGGER.log(Level.INFO, "Host " + cloud.name + " has " + (totalCpuShares - committedCpu)
+                    + " CPU shares free, " + template.image + " needs " + template.cpuShares + "; not provisioning.");
+            return false;
+        }
+
+        long memory = template.getReservedMemoryBytes();
+        if (memory > 0 && committedMemory + memory > totalMemory) {
+            LOGGER.log(Level.INFO, "Host " + cloud.name + " has " + toMb(totalMemory - committedMemory)
+                    + "MB memory free, " + template.image + " needs " + toMb(memory) + "MB; not provisioning.");
+            return false;
+        }
+
+        pendingCpuShares += Math.max(template.cpuShares, 0);
+        pendingMemory += template.getReservedMemoryBytes();
+        return true;
+    }
+
+    /**
+     * The container is either running, and so counted as a slave, or has failed.
+     */
+    public synchronized void release(DockerTemplateBase template) {
+        pendingCpuShares = Math.max(pendingCpuShares - Math.max(template.cpuShares, 0), 0);
+        pendingMemory = Math.max(pendingMemory - template.getReservedMemoryBytes(), 0);
+    }
+
+    /**
+     * @return the number of cores docker reports for the host.
+     */
+    public int getCpuCount(DockerCloud cloud) throws IOException {
+        refresh(cloud);
+        synchronized (this) {
+            return totalCpuShares / SHARES_PER_CPU;
+        }
+    }
+
+    /**
+     * How much of the host's CPU or memory, whichever is more, is reserved.
+     *
+     * Doesn't ask the host; 0 until the capacity has been read.
+     */
+    public synchronized double getLoad(DockerCloud cloud) {
+        double load = 0;
+        if (totalCpuShares > 0)
+            load = (double) getCommittedCpuShares(cloud) / totalCpuShares;
+        if (totalMemory > 0)
+            load = Math.max(load, (double) getCommittedMemory(cloud) / totalMemory);
+        return Math.min(load, 1);
+    }
+
+    /**
+     * Summary for the management page, e.g. "2.5/8 CPU, 6144/16384 MB reserved".
+     */
+    public synchronized String getSummary(DockerCloud cloud) {
+        if (fetchedAt == 0)
+            return "";
+
+        int committedCpu = getCommittedCpuShares(cloud);
+        long committedMemory = getCommittedMemory(cloud);
+
+        return String.format("%.1f/%d CPU, %d/%d MB reserved",
+                (double) committedCpu / SHARES_PER_CPU, totalCpuShares / SHARES_PER_CPU,
+                toMb(committedMemory), toMb(totalMemory));
+    }
+
+    private synchronized boolean isFresh() {
+        return fetchedAt != 0 && System.currentTimeMillis() - fetchedAt < REFRESH;
+    }
+
+    /**
+     * Ask the host its size if it's been a while, without holding the reservations meanwhile.
+     */
+    private void refresh(DockerCloud cloud) throws IOException {
+        synchronized (refreshLock) {
+            if (isFresh())
+                return;
+
+            Info info;
+            try {
+                DockerApiGovernor.get(cloud).acquire(DockerApiGovernor.Operation.INSPECT);
+                info = cloud.getDockerClient().infoCmd().exec();
+            } catch (RuntimeException ex) {
+                throw new IOException("Failed to get the info of " + cloud.name, ex);
+            }
+
+            synchronized (this) {
+                totalCpuShares = info.getNCPU() * SHARES_PER_CPU;
+                totalMemory = info.getMemTotal();
+                fetchedAt = System.currentTimeMillis();
+                LOGGER.log(Level.FINE, "Host " + cloudName + " has " + totalCpuShares + " CPU shares, " + toMb(totalMemory) + "MB memory");
+            }
+        }
+    }
+
+    /**
+     * CPU shares held by running slaves and containers being provisioned.
+     */
+    private int getCommittedCpuShares(DockerCloud cloud) {
+        int committed = pendingCpuShares;
+        for (DockerSlave slave : getSlaves(cloud))
+            committed += slave.getCpuShares();
+        return committed;
+    }
+
+    /**
+     * Memory (bytes) held by running slaves and containers being provisioned.
+     */
+    private long getCommittedMemory(DockerCloud cloud) {
+        long committed = pendingMemory;
+        for (DockerSlave slave : getSlaves(cloud))
+            committed += slave.getReservedMemoryBytes();
+        return committed;
+    }
+
+    private static List<DockerSlave> getSlaves(DockerCloud cloud) {
+        List<DockerSlave> slaves = new ArrayList<DockerSlave>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof DockerSlave && cloud.name.equals(((DockerSlave) node).getCloudName()))
+                slaves.add((DockerSlave) node);
+        }
+        return slaves;
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024L * 1024L);
+    }
+}
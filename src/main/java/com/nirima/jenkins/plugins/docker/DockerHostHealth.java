@@ -0,0 +1,285 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How well a docker daemon has been answering, and whether to keep calling it.
+ *
+ * Each call to the daemon is recorded with how long it took, giving moving averages of its
+ * latency and error rate. When it keeps failing, or gets too slow, the breaker opens and the
+ * cloud stops provisioning on that host, instead of waiting for the timeout on every queue
+ * tick. Once the cool-down has passed, {@link Prober} pings the daemon; if it answers in time
+ * the breaker closes again, otherwise the cool-down doubles.
+ */
+public class DockerHostHealth {
+    private static final Logger LOGGER = Logger.getLogger(DockerHostHealth.class.getName());
+
+    /**
+     * Consecutive failures that open the breaker.
+     */
+    private static final int FAILURES = Integer.getInteger(DockerHostHealth.class.getName() + ".failures", 3);
+
+    /**
+     * Error rate (percent) that opens the breaker, once there are enough samples.
+     */
+    private static final int ERROR_RATE = Integer.getInteger(DockerHostHealth.class.getName() + ".errorRate", 50);
+
+    /**
+     * Average latency (ms) that opens the breaker, once there are enough samples.
+     */
+    private static final int SLOW = Integer.getInteger(DockerHostHealth.class.getName() + ".slowMillis", 5000);
+
+    /**
+     * First cool-down (ms), doubled each time a probe fails.
+     */
+    private static final long COOL_DOWN = Long.getLong(DockerHostHealth.class.getName() + ".coolDown", 30 * 1000);
+
+    private static final long MAX_COOL_DOWN = Long.getLong(DockerHostHealth.class.getName() + ".maxCoolDown", 10 * 60 * 1000);
+
+    /**
+     * Samples needed before the averages are trusted.
+     */
+    private static final int MIN_SAMPLES = 5;
+
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final double ALPHA = 0.2;
+
+    private static final Map<String, DockerHostHealth> HEALTH = new ConcurrentHashMap<String, DockerHostHealth>();
+
+    public enum State {
+        /**
+         * Calls go through.
+         */
+        CLOSED("OK"),
+        /**
+         * Cooling down; no provisioning on the host.
+         */
+        OPEN("Unavailable"),
+        /**
+         * A probe is checking whether the host has recovered.
+         */
+        HALF_OPEN("Probing");
+
+        private final String displayName;
+
+        State(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final String cloudName;
+
+    private State state = State.CLOSED;
+    private double latency;
+    private double errorRate;
+    private int samples;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long coolDown = COOL_DOWN;
+
+    DockerHostHealth(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    public static DockerHostHealth get(DockerCloud cloud) {
+        DockerHostHealth health = HEALTH.get(cloud.name);
+        if (health == null) {
+            synchronized (HEALTH) {
+                health = HEALTH.get(cloud.name);
+                if (health == null) {
+                    health = new DockerHostHealth(cloud.name);
+                    HEALTH.put(cloud.name, health);
+                }
+            }
+        }
+        return health;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return whether calls to the host should go through.
+     */
+    public synchronized boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return average latency of calls to the host (ms).
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return recent fraction of calls to the host that failed.
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Score from 1 for a fast, reliable host down to 0, for ranking hosts.
+     */
+    public synchronized double getScore() {
+        if (state != State.CLOSED)
+            return 0;
+        return (1 - errorRate) * SLOW / (SLOW + latency);
+    }
+
+    public void recordSuccess(long millis) {
+        record(true, millis, System.currentTimeMillis());
+    }
+
+    public void recordFailure(long millis) {
+        record(false, millis, System.currentTimeMillis());
+    }
+
+    synchronized void record(boolean success, long millis, long now) {
+        // Calls that were already under way when the breaker opened don't count.
+        if (state != State.CLOSED)
+            return;
+
+        if (samples == 0) {
+            latency = millis;
+            errorRate = success ? 0 : 1;
+        } else {
+            latency += ALPHA * (millis - latency);
+            errorRate += ALPHA * ((success ? 0 : 1) - errorRate);
+        }
+        samples++;
+        consecutiveFailures = success ? 0 : consecutiveFailures + 1;
+
+        if (consecutiveFailures >= FAILURES) {
+            open(now, consecutiveFailures + " consecutive failures");
+        } else if (samples >= MIN_SAMPLES && errorRate * 100 >= ERROR_RATE) {
+            open(now, Math.round(errorRate * 100) + "% of calls failing");
+        } else if (samples >= MIN_SAMPLES && latency >= SLOW) {
+            open(now, "average latency " + Math.round(latency) + "ms");
+        }
+    }
+
+    private void open(long now, String reason) {
+        LOGGER.log(Level.WARNING, "Docker host " + cloudName + " is unhealthy (" + reason + "); not provisioning on it for "
+                + Util.getTimeSpanString(coolDown));
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    /**
+     * @return whether a probe should be sent now; if so the breaker is half open until {@link #probed} is called.
+     */
+    synchronized boolean startProbe(long now) {
+        if (state != State.OPEN || now - openedAt < coolDown)
+            return false;
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    synchronized void probed(boolean success, long millis, long now) {
+        if (state != State.HALF_OPEN)
+            return;
+
+        if (success && millis < SLOW) {
+            LOGGER.log(Level.INFO, "Docker host " + cloudName + " has recovered");
+            state = State.CLOSED;
+            coolDown = COOL_DOWN;
+            latency = millis;
+            errorRate = 0;
+            samples = 1;
+            consecutiveFailures = 0;
+        } else {
+            coolDown = Math.min(coolDown * 2, MAX_COOL_DOWN);
+            open(now, success ? "probe took " + millis + "ms" : "probe failed");
+        }
+    }
+
+    /**
+     * Summary for the management page, e.g. "OK, 45 ms, 0% errors".
+     */
+    public synchronized String getSummary() {
+        switch (state) {
+            case CLOSED:
+                if (samples == 0)
+                    return state.getDisplayName();
+                return String.format("%s, %d ms, %d%% errors", state.getDisplayName(), Math.round(latency), Math.round(errorRate * 100));
+            case OPEN:
+                long retryIn = Math.max(openedAt + coolDown - System.currentTimeMillis(), 0);
+                return state.getDisplayName() + ", retrying in " + Util.getTimeSpanString(retryIn);
+            default:
+                return state.getDisplayName();
+        }
+    }
+
+    /**
+     * Pings the daemons whose breaker has cooled down.
+     */
+    @Extension
+    public static class Prober extends AsyncPeriodicWork {
+
+        public Prober() {
+            super("Docker host health probe");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 10 * 1000;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+                DockerHostHealth health = get(cloud);
+                if (!health.startProbe(System.currentTimeMillis()))
+                    continue;
+
+                long start = System.currentTimeMillis();
+                boolean success = ping(cloud);
+                long millis = System.currentTimeMillis() - start;
+                health.probed(success, millis, System.currentTimeMillis());
+                listener.getLogger().println(cloud.name + ": " + health.getSummary());
+            }
+        }
+
+        /**
+         * Bounded by the cloud's own timeouts, since the daemon may not answer at all.
+         */
+        private static boolean ping(DockerCloud cloud) {
+            HttpURLConnection connection = null;
+            try {
+                URL url = new URL(cloud.serverUrl.replaceAll("/$", "") + "/_ping");
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(cloud.connectTimeout > 0 ? cloud.connectTimeout * 1000 : 5000);
+                connection.setReadTimeout(cloud.readTimeout > 0 ? cloud.readTimeout * 1000 : 5000);
+                Tracing.inject(connection);
+                return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Failed to ping " + cloud.name, ex);
+                return false;
+            } finally {
+                if (connection != null)
+                    connection.disconnect();
+            }
+        }
+    }
+}
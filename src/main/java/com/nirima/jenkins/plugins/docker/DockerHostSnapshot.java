@@ -0,0 +1,230 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Image;
+import com.google.common.base.Objects;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What a docker host looked like the last time we asked it.
+ *
+ * The management pages render from these snapshots instead of calling each daemon
+ * on every request. {@link Refresher} queries all hosts in parallel in the background,
+ * each on its own thread, so a host that hangs holds up no other and no more than one thread.
+ */
+public class DockerHostSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(DockerHostSnapshot.class.getName());
+
+    /**
+     * How long to wait for any one host (seconds).
+     */
+    private static final int TIMEOUT = Integer.getInteger(DockerHostSnapshot.class.getName() + ".timeout", 10);
+
+    private static final Map<String, DockerHostSnapshot> SNAPSHOTS = new ConcurrentHashMap<String, DockerHostSnapshot>();
+
+    public final List<Container> containers;
+    public final List<Image> images;
+
+    /**
+     * When the containers and images were fetched; 0 if they never have been.
+     */
+    public final long fetchedAt;
+
+    /**
+     * Why the last refresh failed, or null if it succeeded.
+     */
+    public final String error;
+
+    private DockerHostSnapshot(List<Container> containers, List<Image> images, long fetchedAt, String error) {
+        this.containers = containers;
+        this.images = images;
+        this.fetchedAt = fetchedAt;
+        this.error = error;
+    }
+
+    /**
+     * @return the latest snapshot for the cloud, or null if it has not been fetched yet.
+     */
+    public static DockerHostSnapshot get(DockerCloud cloud) {
+        return SNAPSHOTS.get(cloud.name);
+    }
+
+    /**
+     * Milliseconds since the data was fetched.
+     */
+    public long getAge() {
+        return fetchedAt == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - fetchedAt;
+    }
+
+    public String getStaleness() {
+        if (fetchedAt == 0)
+            return "Never fetched";
+        return Util.getTimeSpanString(getAge()) + " ago";
+    }
+
+    private static DockerHostSnapshot fetch(DockerCloud cloud) {
+        DockerHostHealth health = DockerHostHealth.get(cloud);
+        if (!health.isAvailable())
+            return failed(cloud, "Host is " + health.getSummary());
+
+        DockerClient client = cloud.getDockerClient();
+        List<Container> containers = cloud.listContainers();
+        DockerApiGovernor.get(cloud).acquire(DockerApiGovernor.Operation.LIST);
+        long start = System.currentTimeMillis();
+        List<Image> images;
+        try {
+            images = client.listImagesCmd().exec();
+        } catch (RuntimeException ex) {
+            health.recordFailure(System.currentTimeMillis() - start);
+            throw ex;
+        }
+        health.recordSuccess(System.currentTimeMillis() - start);
+        return new DockerHostSnapshot(containers, images, System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Keep the data from the last good refresh, so the page can show how stale it is.
+     */
+    private static DockerHostSnapshot failed(DockerCloud cloud, String error) {
+        DockerHostSnapshot previous = SNAPSHOTS.get(cloud.name);
+        if (previous == null)
+            return new DockerHostSnapshot(Collections.<Container>emptyList(), Collections.<Image>emptyList(), 0, error);
+        return new DockerHostSnapshot(previous.containers, previous.images, previous.fetchedAt, error);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("containers", containers.size())
+                .add("images", images.size())
+                .add("fetchedAt", fetchedAt)
+                .add("error", error)
+                .toString();
+    }
+
+    /**
+     * Refreshes the snapshots of all docker clouds in parallel.
+     */
+    @Extension
+    public static class Refresher extends AsyncPeriodicWork {
+
+        /**
+         * cloud name -> the thread its host is queried on.
+         */
+        private final Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+
+        /**
+         * cloud name -> its latest refresh, which may still be running.
+         */
+        private final Map<String, Future<DockerHostSnapshot>> refreshing = new HashMap<String, Future<DockerHostSnapshot>>();
+
+        /**
+         * cloud name -> when its latest refresh was started.
+         */
+        private final Map<String, Long> startedAt = new HashMap<String, Long>();
+
+        public Refresher() {
+            super("Docker host snapshot refresh");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 30 * 1000;
+        }
+
+        @Override
+        protected synchronized void execute(TaskListener listener) throws IOException, InterruptedException {
+            Map<DockerCloud, Future<DockerHostSnapshot>> pending = new LinkedHashMap<DockerCloud, Future<DockerHostSnapshot>>();
+            Set<String> clouds = new HashSet<String>();
+
+            for (final DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+                clouds.add(cloud.name);
+
+                // A host that timed out last time may still not have answered. Rather than queue
+                // more calls behind it, count the round as another failure, so that a host that
+                // hangs opens its breaker.
+                Future<DockerHostSnapshot> previous = refreshing.get(cloud.name);
+                if (previous != null && !previous.isDone()) {
+                    long busy = System.currentTimeMillis() - startedAt.get(cloud.name);
+                    DockerHostHealth.get(cloud).recordFailure(busy);
+                    DockerHostSnapshot snapshot = failed(cloud, "Still refreshing after " + Util.getTimeSpanString(busy));
+                    SNAPSHOTS.put(cloud.name, snapshot);
+                    listener.getLogger().println(cloud.name + ": " + snapshot);
+                    continue;
+                }
+
+                ExecutorService executor = executors.get(cloud.name);
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+                    executors.put(cloud.name, executor);
+                }
+                Future<DockerHostSnapshot> future = executor.submit(new Callable<DockerHostSnapshot>() {
+                    public DockerHostSnapshot call() throws Exception {
+                        return fetch(cloud);
+                    }
+                });
+                refreshing.put(cloud.name, future);
+                startedAt.put(cloud.name, System.currentTimeMillis());
+                pending.put(cloud, future);
+            }
+
+            for (Map.Entry<DockerCloud, Future<DockerHostSnapshot>> entry : pending.entrySet()) {
+                DockerCloud cloud = entry.getKey();
+                DockerHostSnapshot snapshot;
+                try {
+                    // Each host has the timeout from when its own refresh was started.
+                    long deadline = startedAt.get(cloud.name) + TimeUnit.SECONDS.toMillis(TIMEOUT);
+                    long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                    snapshot = entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    // Interrupting doesn't abort a blocked read; the call is left to finish or fail.
+                    DockerHostHealth.get(cloud).recordFailure(TimeUnit.SECONDS.toMillis(TIMEOUT));
+                    snapshot = failed(cloud, "Timed out after " + TIMEOUT + "s");
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.FINE, "Failed to refresh " + cloud, ex.getCause());
+                    snapshot = failed(cloud, String.valueOf(ex.getCause().getMessage()));
+                }
+
+                SNAPSHOTS.put(cloud.name, snapshot);
+                listener.getLogger().println(cloud.name + ": " + snapshot);
+            }
+
+            // Forget clouds that have been removed.
+            SNAPSHOTS.keySet().retainAll(clouds);
+            refreshing.keySet().retainAll(clouds);
+            startedAt.keySet().retainAll(clouds);
+            for (Iterator<Map.Entry<String, ExecutorService>> it = executors.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, ExecutorService> entry = it.next();
+                if (!clouds.contains(entry.getKey())) {
+                    entry.getValue().shutdown();
+                    it.remove();
+                }
+            }
+        }
+    }
+}
@@ -3,7 +3,10 @@ package com.nirima.jenkins.plugins.docker;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
 
-import com.github.dockerjava.api.model.Container;
+import com.nirima.jenkins.plugins.docker.cache.DockerCaches;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import com.nirima.jenkins.plugins.docker.forecast.DemandForecaster;
+import com.nirima.jenkins.plugins.docker.forecast.LabelDemand;
 import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
@@ -101,17 +104,109 @@ public class DockerManagement extends ManagementLink implements StaplerProxy, De
                 return cloud.getDisplayName();
             }
 
+            public DockerHostSnapshot getSnapshot() {
+                return DockerHostSnapshot.get(cloud);
+            }
+
             public String getActiveHosts() {
-                try {
-                    List<Container> containers = cloud.listContainers();
-                    return "(" + containers.size() + ")";
-                } catch(Exception ex) {
+                DockerHostSnapshot snapshot = getSnapshot();
+                if (snapshot == null)
+                    return "Pending";
+                if (snapshot.fetchedAt == 0)
                     return "Error";
-                }
+                return "(" + snapshot.containers.size() + ")";
+            }
+
+            public String getStaleness() {
+                DockerHostSnapshot snapshot = getSnapshot();
+                if (snapshot == null)
+                    return "";
+                if (snapshot.error != null)
+                    return snapshot.getStaleness() + " (" + snapshot.error + ")";
+                return snapshot.getStaleness();
+            }
+
+            public String getImageEviction() {
+                if (cloud.getImageDiskBudget() <= 0)
+                    return "";
+
+                DockerImageUsage.EvictionReport report = DockerImageUsage.get().getReport(cloud);
+                return report == null ? "Pending" : report.toString();
+            }
+
+            public String getCaches() {
+                return DockerCaches.get().getSummary(cloud);
+            }
+
+            public String getCapacity() {
+                return DockerHostCapacity.get(cloud).getSummary(cloud);
+            }
+
+            public String getApiWait() {
+                return DockerApiGovernor.get(cloud).getSummary();
+            }
+
+            public String getHealth() {
+                return DockerHostHealth.get(cloud).getSummary();
+            }
+
+            public String getTmpfs() {
+                return DockerTmpfs.getSummary(cloud);
+            }
+
+            public int getProvisionTimeouts() {
+                return cloud.getProvisionTimeouts();
             }
 
         }
 
+        public static class ForecastDetail {
+            final LabelDemand demand;
+
+            public ForecastDetail(LabelDemand demand) {
+                this.demand = demand;
+            }
+
+            public String getLabel() {
+                return demand.label;
+            }
+
+            public int getCurrent() {
+                return demand.getCurrent();
+            }
+
+            public String getForecast() {
+                float forecast = DemandForecaster.get().getForecast(demand);
+                return Float.isNaN(forecast) ? "Not enough history" : String.format("%.1f", forecast);
+            }
+
+            public String getAccuracy() {
+                return demand.getAccuracy();
+            }
+        }
+
+        /**
+         * Slaves that could have started on more than one cloud, and why they went where they did.
+         */
+        public List<DockerAffinity.Placement> getPlacements() {
+            return DockerAffinity.getPlacements();
+        }
+
+        /**
+         * Each docker label's demand, and what it is forecast to be.
+         */
+        public Collection<ForecastDetail> getForecasts() {
+            return Collections2.transform(DemandForecaster.get().getLabels(), new Function<LabelDemand, ForecastDetail>() {
+                public ForecastDetail apply(@Nullable LabelDemand input) {
+                    return new ForecastDetail(input);
+                }
+            });
+        }
+
+        public String getForecastSummary() {
+            return DemandForecaster.get().getSummary();
+        }
+
         public Collection<ServerDetail> getServers() {
             return Collections2.transform(PluginImpl.getInstance().getServers(), new Function<DockerCloud, ServerDetail>() {
                 public ServerDetail apply(@Nullable DockerCloud input) {
@@ -1,6 +1,11 @@
 package com.nirima.jenkins.plugins.docker;
 
 import com.github.dockerjava.api.model.Container;
+import com.google.common.base.Predicate;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import com.nirima.jenkins.plugins.docker.stats.ContainerStats;
+import com.nirima.jenkins.plugins.docker.stats.DockerStatsCollector;
 import com.nirima.jenkins.plugins.docker.utils.Consts;
 import hudson.Extension;
 import hudson.model.Describable;
@@ -13,6 +18,7 @@ import org.kohsuke.stapler.StaplerResponse;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -36,6 +42,10 @@ public class DockerManagementServer  implements Describable<DockerManagementServ
         theCloud = PluginImpl.getInstance().getServer(name);
     }
 
+    public DockerManagementServerApi getApi() {
+        return new DockerManagementServerApi(theCloud);
+    }
+
     public Collection getImages(){
         return theCloud.listImages();
     }
@@ -44,6 +54,34 @@ public class DockerManagementServer  implements Describable<DockerManagementServ
         return (List<Container>)theCloud.listContainers();
     }
 
+    /**
+     * @return each template's use of the container cap, and its fair share of it, as of the
+     * last {@link DockerHostSnapshot snapshot} of the host.
+     */
+    public List<DockerFairShare.Share> getShares() {
+        DockerHostSnapshot snapshot = DockerHostSnapshot.get(theCloud);
+        List<Container> containers = snapshot == null ? Collections.<Container>emptyList() : snapshot.containers;
+        return DockerFairShare.getShares(theCloud, containers);
+    }
+
+    /**
+     * @return recent resource usage of the container, or null if it isn't one of our slaves.
+     */
+    public ContainerStats getStats(String containerId) {
+        return DockerStatsCollector.getStats(theCloud, containerId);
+    }
+
+    /**
+     * @return the latest lifecycle events of the server's containers, newest first.
+     */
+    public List<LifecycleEvent> getEvents() {
+        return DockerLifecycleJournal.get().getEvents(-1, 50, new Predicate<LifecycleEvent>() {
+            public boolean apply(LifecycleEvent event) {
+                return theCloud.name.equals(event.cloud);
+            }
+        });
+    }
+
     public String asTime(Long time) {
         if( time == null )
             return "";
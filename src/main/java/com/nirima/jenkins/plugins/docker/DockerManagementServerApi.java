@@ -0,0 +1,376 @@
+package com.nirima.jenkins.plugins.docker;
+
+import antlr.ANTLRException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Image;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import hudson.model.Label;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JSON API for the containers and images on a docker server.
+ *
+ * <pre>
+ *   .../server/NAME/api/containers?limit=100&amp;cursor=ID&amp;label=EXPR&amp;image=NAME&amp;status=running&amp;fields=id,status
+ *   .../server/NAME/api/images?limit=100&amp;cursor=ID&amp;label=EXPR&amp;image=NAME&amp;status=dangling&amp;fields=id,repoTags
+ *   .../server/NAME/api/events?limit=100&amp;cursor=SEQ&amp;image=NAME&amp;container=ID&amp;status=FAILED
+ * </pre>
+ *
+ * Items are ordered by id, and written to the response as they are visited. When there are
+ * more items, the response ends with a "next" cursor (the id of the last item written) to
+ * pass back to get the next page. Lifecycle events come newest first, and the cursor is the
+ * sequence number of the last one written.
+ */
+public class DockerManagementServerApi {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    /**
+     * Flush to the client every so many items.
+     */
+    private static final int FLUSH_EVERY = 100;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final DockerCloud cloud;
+
+    public DockerManagementServerApi(DockerCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    public void doContainers(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Query query = parseQuery(req, rsp);
+        if (query == null)
+            return;
+
+        List<Container> containers = new ArrayList<Container>(getContainers());
+        Collections.sort(containers, new Comparator<Container>() {
+            public int compare(Container o1, Container o2) {
+                return o1.getId().compareTo(o2.getId());
+            }
+        });
+
+        Map<String, DockerSlave> slaves = getSlavesByContainerId();
+
+        JsonGenerator json = start(rsp);
+        String next = null;
+        String last = null;
+        int written = 0;
+        for (Container container : containers) {
+            if (!query.isAfterCursor(container.getId()))
+                continue;
+
+            DockerSlave slave = slaves.get(container.getId());
+            if (!query.matchesLabel(slave == null ? null : Collections.singleton(slave))
+                    || !query.matchesImage(container.getImage())
+                    || !query.matchesContainerStatus(container.getStatus()))
+                continue;
+
+            if (written == query.limit) {
+                next = last;
+                break;
+            }
+
+            json.writeStartObject();
+            if (query.wants("id"))
+                json.writeStringField("id", container.getId());
+            if (query.wants("image"))
+                json.writeStringField("image", container.getImage());
+            if (query.wants("command"))
+                json.writeStringField("command", container.getCommand());
+            if (query.wants("created"))
+                json.writeNumberField("created", container.getCreated());
+            if (query.wants("status"))
+                json.writeStringField("status", container.getStatus());
+            if (query.wants("ports")) {
+                json.writeArrayFieldStart("ports");
+                if (container.getPorts() != null) {
+                    for (Object port : container.getPorts()) {
+                        json.writeString(String.valueOf(port));
+                    }
+                }
+                json.writeEndArray();
+            }
+            if (query.wants("node"))
+                json.writeStringField("node", slave == null ? null : slave.getNodeName());
+            json.writeEndObject();
+            last = container.getId();
+
+            if (++written % FLUSH_EVERY == 0)
+                json.flush();
+        }
+        end(json, next);
+    }
+
+    public void doImages(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Query query = parseQuery(req, rsp);
+        if (query == null)
+            return;
+
+        List<Image> images = new ArrayList<Image>(getImages());
+        Collections.sort(images, new Comparator<Image>() {
+            public int compare(Image o1, Image o2) {
+                return o1.getId().compareTo(o2.getId());
+            }
+        });
+
+        JsonGenerator json = start(rsp);
+        String next = null;
+        String last = null;
+        int written = 0;
+        for (Image image : images) {
+            if (!query.isAfterCursor(image.getId()))
+                continue;
+
+            String[] tags = Objects.firstNonNull(image.getRepoTags(), new String[0]);
+            if (!query.matchesLabel(getTemplatesUsing(tags))
+                    || !query.matchesImage(tags)
+                    || !query.matchesImageStatus(tags))
+                continue;
+
+            if (written == query.limit) {
+                next = last;
+                break;
+            }
+
+            json.writeStartObject();
+            if (query.wants("id"))
+                json.writeStringField("id", image.getId());
+            if (query.wants("repoTags")) {
+                json.writeArrayFieldStart("repoTags");
+                for (String tag : tags) {
+                    json.writeString(tag);
+                }
+                json.writeEndArray();
+            }
+            if (query.wants("created"))
+                json.writeNumberField("created", image.getCreated());
+            if (query.wants("size"))
+                json.writeNumberField("size", image.getSize());
+            if (query.wants("virtualSize"))
+                json.writeNumberField("virtualSize", image.getVirtualSize());
+            json.writeEndObject();
+            last = image.getId();
+
+            if (++written % FLUSH_EVERY == 0)
+                json.flush();
+        }
+        end(json, next);
+    }
+
+    /**
+     * Lifecycle events of the server's containers held in memory; older ones are in the journal files.
+     */
+    public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final Query query = parseQuery(req, rsp);
+        if (query == null)
+            return;
+
+        final String container = Strings.emptyToNull(req.getParameter("container"));
+        long before = -1;
+        try {
+            if (query.cursor != null)
+                before = Long.parseLong(query.cursor);
+        } catch (NumberFormatException ex) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor: " + query.cursor);
+            return;
+        }
+
+        // One more than asked for tells us whether there is another page.
+        List<LifecycleEvent> events = DockerLifecycleJournal.get().getEvents(before, query.limit + 1, new Predicate<LifecycleEvent>() {
+            public boolean apply(LifecycleEvent event) {
+                return cloud.name.equals(event.cloud)
+                        && query.matchesImage(event.template)
+                        && (container == null || (event.containerId != null && event.containerId.startsWith(container)))
+                        && (query.status == null || event.type.name().equalsIgnoreCase(query.status));
+            }
+        });
+
+        JsonGenerator json = start(rsp);
+        String next = null;
+        for (int i = 0; i < events.size(); i++) {
+            if (i == query.limit) {
+                next = String.valueOf(events.get(i - 1).seq);
+                break;
+            }
+            events.get(i).writeJson(json);
+        }
+        end(json, next);
+    }
+
+    /**
+     * Prefer the background snapshot, so paging through a large host doesn't hit the daemon each time.
+     */
+    private List<Container> getContainers() {
+        DockerHostSnapshot snapshot = DockerHostSnapshot.get(cloud);
+        if (snapshot != null && snapshot.error == null)
+            return snapshot.containers;
+        return cloud.listContainers();
+    }
+
+    private List<Image> getImages() {
+        DockerHostSnapshot snapshot = DockerHostSnapshot.get(cloud);
+        if (snapshot != null && snapshot.error == null)
+            return snapshot.images;
+        return cloud.listImages();
+    }
+
+    private Map<String, DockerSlave> getSlavesByContainerId() {
+        Map<String, DockerSlave> slaves = new HashMap<String, DockerSlave>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof DockerSlave) {
+                DockerSlave slave = (DockerSlave) node;
+                slaves.put(slave.containerId, slave);
+            }
+        }
+        return slaves;
+    }
+
+    private List<DockerTemplate> getTemplatesUsing(String[] tags) {
+        List<DockerTemplate> templates = new ArrayList<DockerTemplate>();
+        for (DockerTemplate template : cloud.templates) {
+            if (Arrays.asList(tags).contains(template.image) || Arrays.asList(tags).contains(template.image + ":latest"))
+                templates.add(template);
+        }
+        return templates;
+    }
+
+    private static Query parseQuery(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        try {
+            return new Query(req);
+        } catch (ANTLRException ex) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid label expression: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static JsonGenerator start(StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        JsonGenerator json = JSON.createGenerator(rsp.getWriter());
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        return json;
+    }
+
+    private static void end(JsonGenerator json, String next) throws IOException {
+        json.writeEndArray();
+        if (next != null)
+            json.writeStringField("next", next);
+        json.writeEndObject();
+        json.close();
+    }
+
+    /**
+     * Paging, filter and projection parameters of a request.
+     */
+    private static class Query {
+        final String cursor;
+        final int limit;
+        final Label label;
+        final String image;
+        final String status;
+        final Set<String> fields;
+
+        Query(StaplerRequest req) throws ANTLRException {
+            cursor = Strings.emptyToNull(req.getParameter("cursor"));
+
+            int l = DEFAULT_LIMIT;
+            try {
+                if (req.getParameter("limit") != null)
+                    l = Integer.parseInt(req.getParameter("limit"));
+            } catch (NumberFormatException ex) {
+                // use the default
+            }
+            limit = Math.max(1, Math.min(l, MAX_LIMIT));
+
+            String labelString = Strings.emptyToNull(req.getParameter("label"));
+            label = labelString == null ? null : Label.parseExpression(labelString);
+
+            image = Strings.emptyToNull(req.getParameter("image"));
+            status = Strings.emptyToNull(req.getParameter("status"));
+
+            String fieldString = Strings.emptyToNull(req.getParameter("fields"));
+            fields = fieldString == null ? null : new HashSet<String>(Arrays.asList(fieldString.split(",")));
+        }
+
+        boolean wants(String field) {
+            return fields == null || fields.contains(field);
+        }
+
+        boolean isAfterCursor(String id) {
+            return cursor == null || id.compareTo(cursor) > 0;
+        }
+
+        /**
+         * A label filter matches when any of the nodes (or templates) satisfies the expression.
+         */
+        boolean matchesLabel(Iterable<?> owners) {
+            if (label == null)
+                return true;
+            if (owners == null)
+                return false;
+            for (Object owner : owners) {
+                if (owner instanceof Node && label.matches((Node) owner))
+                    return true;
+                if (owner instanceof DockerTemplate && label.matches(((DockerTemplate) owner).getLabelSet()))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean matchesImage(String... names) {
+            if (image == null)
+                return true;
+            for (String name : names) {
+                if (name != null && name.contains(image))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean matchesContainerStatus(String containerStatus) {
+            if (status == null)
+                return true;
+            if (containerStatus == null)
+                return false;
+            if (status.equals("running"))
+                return containerStatus.startsWith("Up");
+            if (status.equals("exited"))
+                return containerStatus.startsWith("Exited");
+            return containerStatus.toLowerCase().contains(status.toLowerCase());
+        }
+
+        boolean matchesImageStatus(String[] tags) {
+            if (status == null)
+                return true;
+            boolean dangling = tags.length == 0 || (tags.length == 1 && tags[0].equals("<none>:<none>"));
+            if (status.equals("dangling"))
+                return dangling;
+            if (status.equals("tagged"))
+                return !dangling;
+            return true;
+        }
+    }
+}
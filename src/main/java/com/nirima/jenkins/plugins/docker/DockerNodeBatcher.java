@@ -0,0 +1,141 @@
+package com.nirima.jenkins.plugins.docker;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the docker slaves added and removed over a short window, and applies them to
+ * Jenkins together.
+ *
+ * Adding or removing a node one at a time saves the whole node list and recomputes the
+ * labels each time; when many slaves come and go at once, that work queues up on the
+ * master. A batch does it once.
+ */
+public class DockerNodeBatcher {
+    private static final Logger LOGGER = Logger.getLogger(DockerNodeBatcher.class.getName());
+
+    /**
+     * How long (ms) to collect changes before applying them.
+     */
+    private static final long WINDOW = Long.getLong(DockerNodeBatcher.class.getName() + ".window", 500);
+
+    private static final DockerNodeBatcher INSTANCE = new DockerNodeBatcher();
+
+    /**
+     * The batch collecting changes, or null if there is none yet.
+     */
+    private Batch pending;
+
+    public static DockerNodeBatcher get() {
+        return INSTANCE;
+    }
+
+    public Batch add(Node node) {
+        return enqueue(node, true);
+    }
+
+    public Batch remove(Node node) {
+        return enqueue(node, false);
+    }
+
+    private synchronized Batch enqueue(Node node, boolean add) {
+        if (pending == null) {
+            final Batch batch = pending = new Batch();
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(WINDOW);
+                    } catch (InterruptedException ex) {
+                        // Apply it now, rather than leave the callers waiting.
+                    }
+                    apply(batch);
+                }
+            });
+        }
+        pending.changes.add(new Change(node, add));
+        return pending;
+    }
+
+    private void apply(Batch batch) {
+        synchronized (this) {
+            if (pending == batch)
+                pending = null;
+        }
+
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            // Keep out the nodes added and removed one at a time while the list is rebuilt.
+            synchronized (jenkins) {
+                jenkins.setNodes(merge(jenkins.getNodes(), batch.changes));
+            }
+            LOGGER.log(Level.FINE, "Applied " + batch.changes.size() + " node changes at once");
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to apply " + batch.changes.size() + " node changes", ex);
+            batch.failure = ex;
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Failed to apply " + batch.changes.size() + " node changes", ex);
+            batch.failure = new IOException(ex);
+        } finally {
+            batch.applied.countDown();
+        }
+    }
+
+    /**
+     * @return the nodes with the changes applied in order; a node added replaces any with
+     * the same name, as {@link Jenkins#addNode} does.
+     */
+    static List<Node> merge(List<Node> nodes, List<Change> changes) {
+        Map<String, Node> byName = new LinkedHashMap<String, Node>();
+        for (Node node : nodes)
+            byName.put(node.getNodeName(), node);
+
+        for (Change change : changes) {
+            String name = change.node.getNodeName();
+            if (change.add)
+                byName.put(name, change.node);
+            else if (byName.get(name) == change.node)
+                byName.remove(name);
+        }
+        return new ArrayList<Node>(byName.values());
+    }
+
+    static class Change {
+        final Node node;
+        final boolean add;
+
+        Change(Node node, boolean add) {
+            this.node = node;
+            this.add = add;
+        }
+    }
+
+    /**
+     * Changes applied together.
+     */
+    public static class Batch {
+        private final List<Change> changes = new ArrayList<Change>();
+        private final CountDownLatch applied = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        /**
+         * Wait until the batch has been applied.
+         *
+         * @throws IOException if it could not be
+         */
+        public void await() throws IOException, InterruptedException {
+            applied.await();
+            if (failure != null)
+                throw new IOException("Failed to update the nodes", failure);
+        }
+    }
+}
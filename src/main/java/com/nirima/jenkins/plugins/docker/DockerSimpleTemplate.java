@@ -18,7 +18,9 @@ public class DockerSimpleTemplate extends DockerTemplateBase implements Describa
                                 String hostname,
                                 String bindPorts,
                                 boolean bindAllPorts,
-                                boolean privileged) {
+                                boolean privileged,
+                                int memoryLimit,
+                                int cpuShares) {
         super(image,
                 dnsString,
                 dockerCommand,
@@ -28,7 +30,9 @@ public class DockerSimpleTemplate extends DockerTemplateBase implements Describa
                 hostname,
                 bindPorts,
                 bindAllPorts,
-                privileged);
+                privileged,
+                memoryLimit,
+                cpuShares);
     }
 
     public Descriptor<DockerSimpleTemplate> getDescriptor() {
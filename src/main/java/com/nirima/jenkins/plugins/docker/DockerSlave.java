@@ -4,6 +4,10 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.nirima.jenkins.plugins.docker.action.DockerBuildAction;
+import com.nirima.jenkins.plugins.docker.cache.DockerCacheRefresh;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.DockerException;
@@ -12,13 +16,17 @@ import com.github.dockerjava.api.DockerException;
 import hudson.Extension;
 import hudson.model.*;
 import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.Cloud;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.RetentionStrategy;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,36 +36,203 @@ public class DockerSlave extends AbstractCloudSlave {
 
     private static final Logger LOGGER = Logger.getLogger(DockerSlave.class.getName());
 
-    public final DockerTemplate dockerTemplate;
     public final String containerId;
 
+    /**
+     * Name of the cloud the container runs on.
+     */
+    private String cloudName;
+
+    /**
+     * The template is saved by reference, so that saving a node doesn't write out the whole
+     * template, and edits to the template apply to the nodes already made from it.
+     */
+    private String templateId;
+
+    /**
+     * Image of the template, to fall back on if the template has been replaced.
+     */
+    private String image;
+
+    /**
+     * @deprecated only read from nodes saved with a copy of their template.
+     */
+    @Deprecated
+    private DockerTemplate dockerTemplate;
+
+    private transient DockerTemplate template;
+
+    /**
+     * What the container was created with, so that it can still be accounted for and cleaned
+     * up once its template is gone; null in nodes saved before they were recorded.
+     */
+    private Integer cpuShares;
+    private Long reservedMemory;
+    private Integer tmpfsSizeMb;
+
+    /**
+     * Directory on the host backing the container's tmpfs paths, or null if it has none.
+     */
+    private String tmpfsDir;
+
     private transient Run theRun;
 
+    /**
+     * Span of the provisioning that created this slave, for the launch to carry on.
+     */
+    private transient Span traceSpan;
+
     @DataBoundConstructor
     public DockerSlave(DockerTemplate dockerTemplate, String containerId, String name, String nodeDescription, String remoteFS, int numExecutors, Mode mode, String labelString, ComputerLauncher launcher, RetentionStrategy retentionStrategy, List<? extends NodeProperty<?>> nodeProperties) throws Descriptor.FormException, IOException {
         super(name, nodeDescription, remoteFS, numExecutors, mode, labelString, launcher, retentionStrategy, nodeProperties);
         Preconditions.checkNotNull(dockerTemplate);
         Preconditions.checkNotNull(containerId);
 
-        this.dockerTemplate = dockerTemplate;
+        this.template = dockerTemplate;
+        this.templateId = dockerTemplate.getTemplateId();
+        this.image = dockerTemplate.image;
+        recordResources(dockerTemplate);
         this.containerId = containerId;
+        this.cloudName = dockerTemplate.getDockerCloud() == null ? null : dockerTemplate.getDockerCloud().name;
+    }
+
+    protected Object readResolve() {
+        // Keep using the saved copy until the template it came from can be found.
+        if (dockerTemplate != null) {
+            template = dockerTemplate;
+            image = dockerTemplate.image;
+            recordResources(dockerTemplate);
+            dockerTemplate = null;
+        }
+        return this;
     }
 
     public DockerCloud getDockerCloud() {
-        DockerCloud theCloud = dockerTemplate.getDockerCloud();
+        DockerCloud theCloud = findCloud();
 
         if( theCloud == null ) {
-            throw new RuntimeException("Docker template " + dockerTemplate + " has no parent ");
+            throw new RuntimeException("Docker slave " + name + " has no cloud " + cloudName);
         }
 
         return theCloud;
     }
 
+    /**
+     * @return null if the cloud no longer exists.
+     */
+    private DockerCloud findCloud() {
+        if (cloudName != null) {
+            Cloud cloud = Jenkins.getInstance().getCloud(cloudName);
+            return cloud instanceof DockerCloud ? (DockerCloud) cloud : null;
+        }
+
+        // Saved before slaves recorded their cloud.
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            if (cloud.getTemplate(image) != null) {
+                cloudName = cloud.name;
+                return cloud;
+            }
+        }
+        return null;
+    }
+
+    private void recordResources(DockerTemplate t) {
+        cpuShares = Math.max(t.cpuShares, 0);
+        reservedMemory = t.getReservedMemoryBytes();
+        tmpfsSizeMb = t.tmpfsSizeMb;
+    }
+
+    /**
+     * The template the slave was made from, as it is now configured.
+     *
+     * @return null if it can no longer be found, e.g. it has been deleted, or its image changed
+     * since the slave was made.
+     */
+    public DockerTemplate getDockerTemplate() {
+        DockerCloud cloud = findCloud();
+        DockerTemplate current = template;
+        // Clouds and their templates are replaced whenever the configuration is saved.
+        if (cloud != null && (current == null || current.getDockerCloud() != cloud)) {
+            DockerTemplate found = cloud.getTemplateById(templateId);
+            if (found == null)
+                found = cloud.getTemplate(image);
+            if (found != null) {
+                template = current = found;
+                templateId = found.getTemplateId();
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Fill in what nodes saved before the container's resources were recorded are missing,
+     * from the template if it can still be found.
+     */
+    private void resolveResources() {
+        if (cpuShares != null)
+            return;
+        DockerTemplate t = getDockerTemplate();
+        if (t != null)
+            recordResources(t);
+    }
+
+    /**
+     * Image the container was created from.
+     */
+    public String getImage() {
+        return image;
+    }
+
+    /**
+     * @return CPU shares the container reserves, 0 if none or not known.
+     */
+    public int getCpuShares() {
+        resolveResources();
+        return cpuShares == null ? 0 : cpuShares;
+    }
+
+    /**
+     * @return memory (bytes) the container reserves, 0 if none or not known.
+     */
+    public long getReservedMemoryBytes() {
+        resolveResources();
+        return reservedMemory == null ? 0 : reservedMemory;
+    }
+
+    /**
+     * @return size (MB) of the container's tmpfs, 0 if none or not known.
+     */
+    public int getTmpfsSizeMb() {
+        resolveResources();
+        return tmpfsSizeMb == null ? 0 : tmpfsSizeMb;
+    }
+
+    public String getCloudName() {
+        return cloudName;
+    }
+
     @Override
     public String getDisplayName() {
         return name;
     }
 
+    public String getTmpfsDir() {
+        return tmpfsDir;
+    }
+
+    public void setTmpfsDir(String tmpfsDir) {
+        this.tmpfsDir = tmpfsDir;
+    }
+
+    public Span getTraceSpan() {
+        return traceSpan;
+    }
+
+    public void setTraceSpan(Span traceSpan) {
+        this.traceSpan = traceSpan;
+    }
+
     public void setRun(Run run) {
         this.theRun = run;
     }
@@ -69,6 +244,7 @@ public class DockerSlave extends AbstractCloudSlave {
 
     public boolean containerExistsInCloud() {
         try {
+            DockerApiGovernor.get(getDockerCloud()).acquire(DockerApiGovernor.Operation.INSPECT);
             DockerClient dockerClient = getDockerClient();
             dockerClient.inspectContainerCmd(containerId);
             return true;
@@ -77,15 +253,50 @@ public class DockerSlave extends AbstractCloudSlave {
         }
     }
 
-    @Override
-    protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
+    /**
+     * Remove a slave whose container has already gone from the host, without trying to
+     * stop or remove it.
+     */
+    void removeGone() throws IOException {
+        // Many may go at once after a restart; no need to wait for each.
+        DockerNodeBatcher.get().remove(this);
+
+        DockerCpuAllocator.get().release(getDockerCloud(), containerId);
+        if (tmpfsDir != null)
+            DockerTmpfs.remove(getDockerCloud(), image, tmpfsDir);
+        DockerLifecycleJournal.get().record(LifecycleEvent.Type.REMOVED, this, "container gone");
+    }
 
+    /**
+     * As {@link AbstractCloudSlave#terminate()}, but removing the node along with others
+     * terminated at the same time.
+     */
+    @Override
+    public void terminate() throws InterruptedException, IOException {
+        try {
+            // TODO: send the output to somewhere real
+            _terminate(new StreamTaskListener(System.out, Charset.defaultCharset()));
+        } finally {
+            try {
+                DockerNodeBatcher.get().remove(this).await();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + name, e);
+            }
+        }
+    }
 
+    @Override
+    protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
         try {
-            toComputer().disconnect(null);
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.TERMINATING, this, null);
+
+            // Not a node yet if provisioning failed before adding it.
+            Computer computer = toComputer();
+            if (computer != null)
+                computer.disconnect(null);
 
             try {
-                dockerTemplate.getDockerCloud().stopContainer(containerId);
+                getDockerCloud().stopContainer(containerId);
             } catch(Exception ex) {
                 LOGGER.log(Level.SEVERE, "Failed to stop instance " + containerId + " for slave " + name + " due to exception", ex);
             }
@@ -99,18 +310,41 @@ public class DockerSlave extends AbstractCloudSlave {
                 }
             }
 
-            try {
-                DockerClient client = getDockerClient();
-                client.removeContainerCmd(containerId);
-            } catch(Exception ex) {
-                LOGGER.log(Level.SEVERE, "Failed to remove instance " + containerId + " for slave " + name + " due to exception",ex);
+            Runnable remove = new Runnable() {
+                public void run() {
+                    removeContainer();
+                }
+            };
+
+            // Only a successful build leaves caches fit to seed others. The container is removed
+            // once they are copied, since the copy needs its volumes.
+            DockerTemplate t = getDockerTemplate();
+            if (t == null || !t.hasCaches() || theRun == null || theRun.getResult() != Result.SUCCESS
+                    || !DockerCacheRefresh.promote(getDockerCloud(), t, containerId, remove)) {
+                remove.run();
             }
 
+            DockerCpuAllocator.get().release(getDockerCloud(), containerId);
+
+            if (tmpfsDir != null)
+                DockerTmpfs.remove(getDockerCloud(), image, tmpfsDir);
+
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failure to terminate instance " + containerId + " for slave " + name ,e);
         }
     }
 
+    private void removeContainer() {
+        try {
+            DockerApiGovernor.get(getDockerCloud()).acquire(DockerApiGovernor.Operation.CREATE, DockerApiGovernor.Priority.CRITICAL);
+            DockerClient client = getDockerClient();
+            client.removeContainerCmd(containerId).withRemoveVolumes(true).exec();
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.REMOVED, this, null);
+        } catch(Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to remove instance " + containerId + " for slave " + name + " due to exception",ex);
+        }
+    }
+
     private void slaveShutdown(TaskListener listener) throws DockerException, IOException {
 /*
         // The slave has stopped. Should we commit / tag / push ?
@@ -196,7 +430,8 @@ public class DockerSlave extends AbstractCloudSlave {
      * @throws IOException
      */
     private void addJenkinsAction(String tag_image) throws IOException {
-        theRun.addAction( new DockerBuildAction(getDockerCloud().serverUrl, containerId, tag_image, dockerTemplate.remoteFsMapping) );
+        DockerTemplate t = getDockerTemplate();
+        theRun.addAction( new DockerBuildAction(getDockerCloud().serverUrl, containerId, tag_image, t == null ? null : t.remoteFsMapping) );
         theRun.save();
     }
 
@@ -216,7 +451,8 @@ public class DockerSlave extends AbstractCloudSlave {
         return Objects.toStringHelper(this)
                 .add("name", name)
                 .add("containerId", containerId)
-                .add("template", dockerTemplate)
+                .add("cloud", cloudName)
+                .add("templateId", templateId)
                 .toString();
     }
 
@@ -0,0 +1,203 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the docker slaves that survived a restart against their hosts in one go, rather
+ * than one inspect and one launch attempt each.
+ *
+ * Each cloud's containers are listed once. Slaves whose container has gone are removed at
+ * once, those whose container has stopped are terminated, and the rest are reconnected in
+ * parallel. Containers whose provisioning the restart cut short are removed, and their
+ * {@link ProvisioningLeases leases} given back.
+ *
+ * The slaves' computers are created, and start launching, before this runs;
+ * {@link DockerComputerLauncher} waits for it with {@link #awaitReconciled}, so that slaves
+ * whose containers are gone or stopped aren't launched as well.
+ */
+public class DockerSlaveReconciler {
+    private static final Logger LOGGER = Logger.getLogger(DockerSlaveReconciler.class.getName());
+
+    /**
+     * How long (ms) a launch waits for the slaves to be reconciled after a restart.
+     */
+    private static final long LAUNCH_WAIT = Long.getLong(DockerSlaveReconciler.class.getName() + ".launchWait", TimeUnit.MINUTES.toMillis(5));
+
+    enum State { LIVE, STOPPED, GONE }
+
+    /**
+     * Counted down once the slaves that survived the restart have been reconciled.
+     */
+    private static final CountDownLatch reconciled = new CountDownLatch(1);
+
+    /**
+     * Containers of slaves being removed because their container was gone or stopped.
+     */
+    private static final Set<String> removing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private DockerSlaveReconciler() {
+    }
+
+    @Initializer(after = InitMilestone.COMPLETED)
+    public static void reconcileOnStartup() {
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    reconcile();
+                } finally {
+                    reconciled.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until the slaves that survived the restart have been reconciled, or
+     * {@link #LAUNCH_WAIT} has passed.
+     *
+     * @return false if the slave's container was found gone or stopped, and it is being removed.
+     */
+    public static boolean awaitReconciled(DockerSlave slave) throws InterruptedException {
+        if (!reconciled.await(LAUNCH_WAIT, TimeUnit.MILLISECONDS))
+            LOGGER.log(Level.WARNING, "Launching " + slave.getNodeName() + " without waiting any longer for the docker slaves to be reconciled");
+        return !removing.contains(slave.containerId);
+    }
+
+    public static void reconcile() {
+        Map<DockerCloud, List<DockerSlave>> slaves = new HashMap<DockerCloud, List<DockerSlave>>();
+        // Every cloud, as one without slaves may still have leases to reconcile.
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers())
+            slaves.put(cloud, new ArrayList<DockerSlave>());
+        int unknown = 0;
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof DockerSlave))
+                continue;
+            DockerSlave slave = (DockerSlave) node;
+            DockerCloud cloud;
+            try {
+                cloud = slave.getDockerCloud();
+            } catch (RuntimeException ex) {
+                // Its cloud can't be found; left to be checked on its own.
+                unknown++;
+                continue;
+            }
+            slaves.get(cloud).add(slave);
+        }
+        if (unknown > 0)
+            LOGGER.log(Level.INFO, unknown + " docker slaves have no known cloud, and are left to be checked one by one");
+
+        // One listing per host, all at the same time.
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Map.Entry<DockerCloud, List<DockerSlave>> entry : slaves.entrySet()) {
+            futures.add(Computer.threadPoolForRemoting.submit(new Callable<Void>() {
+                public Void call() {
+                    reconcile(entry.getKey(), entry.getValue());
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to reconcile docker slaves", ex);
+            }
+        }
+    }
+
+    private static void reconcile(DockerCloud cloud, List<DockerSlave> slaves) {
+        long start = System.currentTimeMillis();
+
+        Map<String, Container> containers = new HashMap<String, Container>();
+        try {
+            for (Container container : cloud.listContainers(true))
+                containers.put(container.getId(), container);
+        } catch (RuntimeException ex) {
+            // Can't tell dead from unreachable; leave them to be checked on their own.
+            LOGGER.log(Level.WARNING, "Failed to list containers on " + cloud.name + ", not reconciling its " + slaves.size() + " slaves", ex);
+            return;
+        }
+
+        Set<String> nodes = new HashSet<String>();
+        for (DockerSlave slave : slaves)
+            nodes.add(slave.containerId);
+        int orphans = 0;
+        for (String containerId : ProvisioningLeases.get().reconcile(cloud.name, containers.keySet(), nodes)) {
+            try {
+                DockerApiGovernor.get(cloud).acquire(DockerApiGovernor.Operation.CREATE);
+                DockerClient client = cloud.getDockerClient();
+                client.stopContainerCmd(containerId).exec();
+                client.removeContainerCmd(containerId).withRemoveVolumes(true).exec();
+                orphans++;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Failed to remove container " + containerId + " left provisioning on " + cloud.name, ex);
+            }
+        }
+
+        int live = 0, stopped = 0, gone = 0;
+        for (final DockerSlave slave : slaves) {
+            State state = stateOf(containers.get(slave.containerId));
+            if (state != State.LIVE)
+                removing.add(slave.containerId);
+            try {
+                if (state == State.GONE) {
+                    slave.removeGone();
+                    gone++;
+                } else if (state == State.STOPPED) {
+                    Computer.threadPoolForRemoting.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            slave.terminate();
+                            return null;
+                        }
+                    });
+                    stopped++;
+                } else {
+                    Computer computer = slave.toComputer();
+                    if (computer != null && computer.isOffline())
+                        computer.connect(false);
+                    live++;
+                }
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to reconcile " + slave.getNodeName() + " with its container " + slave.containerId, ex);
+            }
+        }
+
+        LOGGER.log(Level.INFO, "Reconciled " + slaves.size() + " slaves on " + cloud.name + " in "
+                + (System.currentTimeMillis() - start) + "ms: " + live + " live, " + stopped + " stopped, " + gone + " gone; "
+                + orphans + " containers left provisioning removed");
+    }
+
+    /**
+     * @param container the slave's container as listed, or null if it wasn't.
+     */
+    static State stateOf(Container container) {
+        if (container == null)
+            return State.GONE;
+        return stateOf(container.getStatus());
+    }
+
+    static State stateOf(String status) {
+        return status != null && status.startsWith("Up") ? State.LIVE : State.STOPPED;
+    }
+}
@@ -8,7 +8,15 @@ import com.github.dockerjava.api.DockerException;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.nirima.docker.client.model.ContainerConfig;
 import com.nirima.docker.client.model.ContainerInspectResponse;
+import com.nirima.docker.client.model.HostConfig;
+import com.nirima.jenkins.plugins.docker.cache.DockerCaches;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
 import com.trilead.ssh2.Connection;
 import hudson.Extension;
 import hudson.Util;
@@ -25,13 +33,17 @@ import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.durabletask.executors.OnceRetentionStrategy;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +51,11 @@ import java.util.logging.Logger;
 public class DockerTemplate extends DockerTemplateBase implements Describable<DockerTemplate> {
     private static final Logger LOGGER = Logger.getLogger(DockerTemplate.class.getName());
 
+    /**
+     * Provisioning deadline (seconds) for templates that don't set their own.
+     */
+    private static final int DEFAULT_PROVISION_TIMEOUT = Integer.getInteger(DockerTemplate.class.getName() + ".provisionTimeout", 600);
+
 
     public final String labelString;
 
@@ -82,6 +99,64 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
 
     public final int instanceCap;
 
+    /**
+     * Number of cores to pin each container to, if {@link #cpuPinning} is set.
+     */
+    public final int cpuCount;
+
+    private final DockerCpuAllocator.Mode cpuPinning;
+
+    /**
+     * Directory on the docker host mounted as the slave's workspace directory, so that
+     * each job's workspace survives from one slave to the next; empty for throwaway workspaces.
+     */
+    public final String workspaceHostDir;
+
+    /**
+     * Directory on the docker host holding the seeds of this template's dependency caches.
+     */
+    public final String cacheHostDir;
+
+    /**
+     * Paths in the container, e.g. "/home/jenkins/.m2", that start as a copy of the host's seed.
+     */
+    public final String[] cachePaths;
+
+    /**
+     * Size (MB) of the memory-backed directories mounted over {@link #tmpfsPaths}; 0 for none.
+     */
+    public final int tmpfsSizeMb;
+
+    /**
+     * Paths in the container to back with memory; none means all of {@link #remoteFs}.
+     */
+    public final String[] tmpfsPaths;
+
+    /**
+     * Time (seconds) a slave has to come online, from creating its container; 0 for the default.
+     */
+    public final int provisionTimeout;
+
+    /**
+     * Whether a slave that misses the deadline is tried once more on another cloud.
+     */
+    public final boolean retryOnTimeout;
+
+    /**
+     * Relative share of the cloud's container cap when templates compete for it; 0 for the default of 1.
+     */
+    public final int shareWeight;
+
+    /**
+     * Containers the template is guaranteed under the cloud's container cap, when it has jobs waiting.
+     */
+    public final int shareMinimum;
+
+    /**
+     * Identifies the template across edits, for slaves to refer to it by.
+     */
+    private String templateId;
+
     private transient /*almost final*/ Set<LabelAtom> labelSet;
 
     private transient DockerCloud dockerCloud;
@@ -101,12 +176,26 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
                           String hostname,
                           String bindPorts,
                           boolean bindAllPorts,
-                          boolean privileged
+                          boolean privileged,
+                          int memoryLimit,
+                          int cpuShares,
+                          DockerCpuAllocator.Mode cpuPinning,
+                          int cpuCount,
+                          String workspaceHostDir,
+                          String cacheHostDir,
+                          String cachePathsString,
+                          int tmpfsSizeMb,
+                          String tmpfsPathsString,
+                          int provisionTimeout,
+                          boolean retryOnTimeout,
+                          int shareWeight,
+                          int shareMinimum,
+                          String templateId
 
     ) {
         super(image, dnsString,dockerCommand,volumesString,volumesFrom,lxcConfString,hostname,
                 Objects.firstNonNull(bindPorts, "0.0.0.0:22"), bindAllPorts,
-                privileged);
+                privileged, memoryLimit, cpuShares);
 
 
         this.labelString = Util.fixNull(labelString);
@@ -125,6 +214,19 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
             this.instanceCap = Integer.parseInt(instanceCapStr);
         }
 
+        this.cpuPinning = cpuPinning;
+        this.cpuCount = cpuCount;
+        this.workspaceHostDir = Util.fixEmptyAndTrim(workspaceHostDir);
+        this.cacheHostDir = Util.fixEmptyAndTrim(cacheHostDir);
+        this.cachePaths = splitAndFilterEmpty(Util.fixNull(cachePathsString));
+        this.tmpfsSizeMb = tmpfsSizeMb;
+        this.tmpfsPaths = splitAndFilterEmpty(Util.fixNull(tmpfsPathsString));
+        this.provisionTimeout = provisionTimeout;
+        this.retryOnTimeout = retryOnTimeout;
+        this.shareWeight = shareWeight;
+        this.shareMinimum = shareMinimum;
+        this.templateId = Util.fixEmptyAndTrim(templateId);
+
         readResolve();
     }
 
@@ -147,6 +249,137 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
         }
     }
 
+    public boolean isPersistentWorkspace() {
+        return !Strings.isNullOrEmpty(workspaceHostDir);
+    }
+
+    /**
+     * Path of the workspace directory in the container, as Jenkins lays out a slave's root.
+     */
+    public String getWorkspacePath() {
+        return remoteFs.replaceAll("/$", "") + "/workspace";
+    }
+
+    /**
+     * With caches, the command first copies each seed into its cache path.
+     */
+    @Override
+    public ContainerConfig createContainerConfig(ContainerPlacement placement) {
+        ContainerConfig containerConfig = super.createContainerConfig(placement);
+
+        // Pages written to the tmpfs are charged to the container, so leave room for them over its own limit.
+        if (memoryLimit > 0 && hasTmpfs())
+            containerConfig.setMemoryLimit(getReservedMemoryBytes());
+
+        if (hasCaches()) {
+            Map<String, Object> volumes = new HashMap<String, Object>();
+            StringBuilder script = new StringBuilder();
+            String[] paths = getCachePaths();
+            for (int i = 0; i < paths.length; i++) {
+                // A volume, so that the cache can be promoted from the stopped container.
+                volumes.put(paths[i], new HashMap<String, Object>());
+
+                String seed = DockerCaches.SEED_MOUNT + "/" + i;
+                script.append("if [ -d ").append(seed).append(" ]; then mkdir -p ").append(quote(paths[i]))
+                        .append(" && cp -a ").append(seed).append("/. ").append(quote(paths[i])).append("/; fi; ");
+            }
+            containerConfig.setVolumes(volumes);
+
+            script.append("exec");
+            for (String arg : containerConfig.getCmd())
+                script.append(' ').append(quote(arg));
+            containerConfig.setCmd(new String[]{"/bin/sh", "-c", script.toString()});
+        }
+
+        return containerConfig;
+    }
+
+    @Override
+    public HostConfig createHostConfig(ContainerPlacement placement) {
+        HostConfig hostConfig = super.createHostConfig(placement);
+
+        List<String> binds = new ArrayList<String>();
+        if (hostConfig.getBinds() != null)
+            binds.addAll(Arrays.asList(hostConfig.getBinds()));
+
+        if (hasTmpfs() && placement != null && placement.tmpfsDir != null) {
+            String[] paths = getTmpfsPaths();
+            for (int i = 0; i < paths.length; i++)
+                binds.add(placement.tmpfsDir + "/" + i + ":" + paths[i]);
+        }
+
+        if (isPersistentWorkspace())
+            binds.add(workspaceHostDir + ":" + getWorkspacePath());
+
+        if (hasCaches() && dockerCloud != null) {
+            String[] paths = getCachePaths();
+            for (int i = 0; i < paths.length; i++) {
+                String seed = DockerCaches.get().getCache(dockerCloud, this, paths[i]).getSeedPath();
+                if (seed != null)
+                    binds.add(seed + ":" + DockerCaches.SEED_MOUNT + "/" + i + ":ro");
+            }
+        }
+
+        if (!binds.isEmpty())
+            hostConfig.setBinds(binds.toArray(new String[binds.size()]));
+
+        return hostConfig;
+    }
+
+    /**
+     * Quote an argument for /bin/sh.
+     */
+    public static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    public DockerCpuAllocator.Mode getCpuPinning() {
+        return cpuPinning == null ? DockerCpuAllocator.Mode.NONE : cpuPinning;
+    }
+
+    public long getProvisionTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(provisionTimeout > 0 ? provisionTimeout : DEFAULT_PROVISION_TIMEOUT);
+    }
+
+    public int getShareWeight() {
+        return shareWeight > 0 ? shareWeight : 1;
+    }
+
+    public boolean hasTmpfs() {
+        return tmpfsSizeMb > 0;
+    }
+
+    public String getTmpfsPathsString() {
+        return tmpfsPaths == null ? "" : Joiner.on(" ").join(tmpfsPaths);
+    }
+
+    public String[] getTmpfsPaths() {
+        if (tmpfsPaths == null || tmpfsPaths.length == 0)
+            return new String[]{remoteFs};
+        return tmpfsPaths;
+    }
+
+    /**
+     * The tmpfs takes memory from the host on top of the container's own.
+     */
+    @Override
+    public long getReservedMemoryBytes() {
+        return super.getReservedMemoryBytes() + (hasTmpfs() ? tmpfsSizeMb * 1024L * 1024L : 0);
+    }
+
+    public String getCachePathsString() {
+        return Joiner.on(" ").join(getCachePaths());
+    }
+
+    public String[] getCachePaths() {
+        // Templates saved before caches existed have none.
+        return cachePaths == null ? new String[0] : cachePaths;
+    }
+
+    public boolean hasCaches() {
+        return cacheHostDir != null && getCachePaths().length > 0;
+    }
+
     public String getDnsString() {
         return Joiner.on(" ").join(dnsHosts);
     }
@@ -176,9 +409,15 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
      */
     protected Object readResolve() {
         labelSet = Label.parse(labelString);
+        if (templateId == null)
+            templateId = UUID.randomUUID().toString();
         return this;
     }
 
+    public String getTemplateId() {
+        return templateId;
+    }
+
     public String getDisplayName() {
         return "Image of " + image;
     }
@@ -187,6 +426,14 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
         return dockerCloud;
     }
 
+    @Override
+    protected void onLifecycle(LifecycleEvent.Type type, String containerId, long duration) {
+        DockerLifecycleJournal.get().record(type, dockerCloud, this, containerId, duration, null);
+        Span span = Tracing.record("docker." + type.name().toLowerCase(), System.currentTimeMillis() - duration, duration);
+        if (span != null)
+            span.setAttribute("containerId", containerId);
+    }
+
     public void setDockerCloud(DockerCloud cloud) {
         dockerCloud = cloud;
     }
@@ -204,7 +451,25 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
         }
     }
 
-    public DockerSlave provision(StreamTaskListener listener) throws IOException, Descriptor.FormException, DockerException {
+    /**
+     * @param placement host resources set aside for the container.
+     */
+    public DockerSlave provision(StreamTaskListener listener, ContainerPlacement placement) throws IOException, Descriptor.FormException, DockerException {
+        Span span = Tracing.start("docker.template.provision").setAttribute("image", image);
+        try {
+            return doProvision(listener, placement);
+        } catch (IOException ex) {
+            span.setError(ex);
+            throw ex;
+        } catch (RuntimeException ex) {
+            span.setError(ex);
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
+    private DockerSlave doProvision(StreamTaskListener listener, ContainerPlacement placement) throws IOException, Descriptor.FormException, DockerException {
             PrintStream logger = listener.getLogger();
 
 
@@ -217,9 +482,18 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
 
         List<? extends NodeProperty<?>> nodeProperties = new ArrayList();
 
-        ContainerInspectResponse containerInspectResponse = provisionNew();
+        DockerApiGovernor.get(dockerCloud).acquire(DockerApiGovernor.Operation.CREATE, DockerApiGovernor.Priority.CRITICAL);
+        ContainerInspectResponse containerInspectResponse = provisionNew(placement);
+        DockerImageUsage.get().recordUse(dockerCloud, image);
         String containerId = containerInspectResponse.getId();
 
+        if (placement.cpus != null) {
+            DockerCpuAllocator.get().claim(placement.cpus, containerId);
+            logger.println("Pinned to cores " + placement.cpus.getCpuset());
+        }
+        if (hasCaches())
+            DockerCaches.get().recordStart(dockerCloud, this, containerId);
+
         ComputerLauncher launcher = new DockerComputerLauncher(this, containerInspectResponse);
 
         // Build a description up:
@@ -242,20 +516,22 @@ public class DockerTemplate extends DockerTemplateBase implements Describable<Do
             LOGGER.warning("Error fetching name of cloud");
         }
 
-        return new DockerSlave(this, containerId,
+        DockerSlave slave = new DockerSlave(this, containerId,
                 slaveName,
                 nodeDescription,
                 remoteFs, numExecutors, mode, labelString,
                 launcher, retentionStrategy, nodeProperties);
+        slave.setTmpfsDir(placement.tmpfsDir);
+        return slave;
 
     }
 
     public ContainerInspectResponse provisionNew() throws DockerException {
-        throw new NotImplementedException();
+        return provisionNew((ContainerPlacement) null);
+    }
 
-        //DockerClient dockerClient = dockerCloud.getDockerClient();
-//        return provisionNew(dockerClient);
-        //return null;
+    public ContainerInspectResponse provisionNew(ContainerPlacement placement) throws DockerException {
+        return provisionNew(dockerCloud.getProvisioningClient(), placement);
     }
 
     public int getNumExecutors() {
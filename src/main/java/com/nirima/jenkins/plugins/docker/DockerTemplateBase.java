@@ -9,6 +9,7 @@ import com.nirima.docker.client.model.ContainerCreateResponse;
 import com.nirima.docker.client.model.ContainerInspectResponse;
 import com.nirima.docker.client.model.HostConfig;
 import com.nirima.docker.client.model.PortMapping;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.util.ArrayList;
@@ -45,6 +46,16 @@ public abstract class DockerTemplateBase {
 
     public final boolean privileged;
 
+    /**
+     * Memory limit (MB) of the container, which is also what it reserves on the host; 0 for none.
+     */
+    public final int memoryLimit;
+
+    /**
+     * Relative CPU weight of the container, 1024 being one core's worth; 0 for none.
+     */
+    public final int cpuShares;
+
     public DockerTemplateBase(String image,
                           String dnsString,
                           String dockerCommand,
@@ -53,7 +64,9 @@ public abstract class DockerTemplateBase {
                           String hostname,
                           String bindPorts,
                           boolean bindAllPorts,
-                          boolean privileged
+                          boolean privileged,
+                          int memoryLimit,
+                          int cpuShares
 
     ) {
         this.image = image;
@@ -69,6 +82,9 @@ public abstract class DockerTemplateBase {
         this.dnsHosts = splitAndFilterEmpty(dnsString);
         this.volumes = splitAndFilterEmpty(volumesString);
         this.volumesFrom = volumesFrom;
+
+        this.memoryLimit = memoryLimit;
+        this.cpuShares = cpuShares;
     }
 
     private String[] splitAndFilterEmpty(String s) {
@@ -99,24 +115,64 @@ public abstract class DockerTemplateBase {
         return "Image of " + image;
     }
 
+    /**
+     * @return the memory limit in bytes, or 0 if there is none.
+     */
+    public long getMemoryLimitBytes() {
+        return memoryLimit > 0 ? memoryLimit * 1024L * 1024L : 0;
+    }
+
+    /**
+     * @return the memory (bytes) a container takes from its host's capacity.
+     */
+    public long getReservedMemoryBytes() {
+        return getMemoryLimitBytes();
+    }
+
     public ContainerInspectResponse provisionNew(DockerClient dockerClient) throws DockerException {
+        return provisionNew(dockerClient, null);
+    }
+
+    /**
+     * @param placement host resources set aside for the container, or null if there are none.
+     */
+    public ContainerInspectResponse provisionNew(DockerClient dockerClient, ContainerPlacement placement) throws DockerException {
 
-        ContainerConfig containerConfig = createContainerConfig();
+        ContainerConfig containerConfig = createContainerConfig(placement);
 
+        long start = System.currentTimeMillis();
         ContainerCreateResponse container = dockerClient.containers().create(containerConfig);
+        onLifecycle(LifecycleEvent.Type.CREATED, container.getId(), System.currentTimeMillis() - start);
 
         // Launch it.. :
 
-        HostConfig hostConfig = createHostConfig();
+        HostConfig hostConfig = createHostConfig(placement);
 
+        start = System.currentTimeMillis();
         dockerClient.container(container.getId()).start(hostConfig);
+        onLifecycle(LifecycleEvent.Type.STARTED, container.getId(), System.currentTimeMillis() - start);
 
         String containerId = container.getId();
 
-        return dockerClient.container(containerId).inspect();
+        start = System.currentTimeMillis();
+        ContainerInspectResponse inspect = dockerClient.container(containerId).inspect();
+        onLifecycle(LifecycleEvent.Type.INSPECTED, containerId, System.currentTimeMillis() - start);
+        return inspect;
+    }
+
+    /**
+     * Called as each step of {@link #provisionNew} completes.
+     *
+     * @param duration how long the step took (ms)
+     */
+    protected void onLifecycle(LifecycleEvent.Type type, String containerId, long duration) {
     }
 
     public ContainerConfig createContainerConfig() {
+        return createContainerConfig(null);
+    }
+
+    public ContainerConfig createContainerConfig(ContainerPlacement placement) {
         ContainerConfig containerConfig = new ContainerConfig();
         containerConfig.setImage(image);
 
@@ -141,10 +197,22 @@ public abstract class DockerTemplateBase {
         if( volumesFrom != null && !volumesFrom.isEmpty() )
             containerConfig.setVolumesFrom(volumesFrom);
 
+        // The remote API takes resource limits at create time rather than on start.
+        if (memoryLimit > 0)
+            containerConfig.setMemoryLimit(getMemoryLimitBytes());
+        if (cpuShares > 0)
+            containerConfig.setCpuShares(cpuShares);
+        if (placement != null && placement.cpus != null)
+            containerConfig.setCpuset(placement.cpus.getCpuset());
+
         return containerConfig;
     }
 
     public HostConfig createHostConfig() {
+        return createHostConfig(null);
+    }
+
+    public HostConfig createHostConfig(ContainerPlacement placement) {
         HostConfig hostConfig = new HostConfig();
 
 
@@ -177,6 +245,15 @@ public abstract class DockerTemplateBase {
             }
         }
 
+        // The API has no memory node setting, so this only binds memory under the lxc exec
+        // driver; the native driver ignores lxc options and pins the cores alone.
+        if (placement != null && placement.cpus != null && placement.cpus.getMems() != null) {
+            HostConfig.LxcConf mems = hostConfig.new LxcConf();
+            mems.setKey("lxc.cgroup.cpuset.mems");
+            mems.setValue(placement.cpus.getMems());
+            temp.add(mems);
+        }
+
         if (!temp.isEmpty())
             hostConfig.setLxcConf(temp.toArray(new HostConfig.LxcConf[temp.size()]));
 
@@ -190,6 +267,8 @@ public abstract class DockerTemplateBase {
     public String toString() {
         return Objects.toStringHelper(this)
                 .add("image", image)
+                .add("memoryLimit", memoryLimit)
+                .add("cpuShares", cpuShares)
                 .toString();
     }
 }
@@ -0,0 +1,187 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.utils.HelperContainer;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Memory-backed directories for templates whose builds are dominated by small file I/O.
+ *
+ * The remote API can't mount a tmpfs into a container, so each container gets a directory
+ * on the host's shared memory mount instead, bound over its tmpfs paths. That mount is shared
+ * by the whole host, so the template's size is enforced by reserving it from the host's
+ * memory, and {@link Monitor} measures what each slave actually uses.
+ */
+public class DockerTmpfs {
+    private static final Logger LOGGER = Logger.getLogger(DockerTmpfs.class.getName());
+
+    /**
+     * Directory on the hosts' shared memory mount that holds the containers' directories.
+     */
+    public static final String ROOT = System.getProperty(DockerTmpfs.class.getName() + ".root", "/dev/shm/jenkins-docker");
+
+    private static final String MOUNT = "/shm";
+
+    /**
+     * container id -> KB in use when last measured.
+     */
+    private static final Map<String, Long> USAGE = new ConcurrentHashMap<String, Long>();
+
+    private DockerTmpfs() {
+    }
+
+    /**
+     * @return a new directory for one container's tmpfs paths.
+     */
+    public static String newDir() {
+        return ROOT + "/" + UUID.randomUUID().toString();
+    }
+
+    /**
+     * Remove a container's directory, giving the memory back to the host.
+     */
+    public static void remove(DockerCloud cloud, String image, String dir) {
+        if (!dir.startsWith(ROOT + "/"))
+            throw new IllegalArgumentException(dir + " is not under " + ROOT);
+
+        try {
+            int status = HelperContainer.run(cloud.getDockerClient(), image,
+                    Collections.singletonMap(ROOT, MOUNT),
+                    "rm", "-rf", MOUNT + dir.substring(ROOT.length()));
+            if (status != 0)
+                LOGGER.log(Level.WARNING, "Removing " + dir + " on " + cloud.name + " exited with " + status);
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to remove " + dir + " on " + cloud.name, ex);
+        }
+    }
+
+    /**
+     * @return KB of the slave's tmpfs in use when last measured, or null if it hasn't been.
+     */
+    public static Long getUsage(DockerSlave slave) {
+        return USAGE.get(slave.containerId);
+    }
+
+    /**
+     * Summary for the management page, e.g. "3 slaves, 1200/6144 MB".
+     */
+    public static String getSummary(DockerCloud cloud) {
+        int count = 0;
+        long usedKb = 0;
+        long sizeMb = 0;
+        for (DockerSlave slave : getSlaves(cloud)) {
+            count++;
+            sizeMb += slave.getTmpfsSizeMb();
+            Long usage = getUsage(slave);
+            if (usage != null)
+                usedKb += usage;
+        }
+        if (count == 0)
+            return "";
+        return count + (count == 1 ? " slave, " : " slaves, ") + (usedKb / 1024) + "/" + sizeMb + " MB";
+    }
+
+    private static List<DockerSlave> getSlaves(DockerCloud cloud) {
+        List<DockerSlave> slaves = new ArrayList<DockerSlave>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof DockerSlave))
+                continue;
+            DockerSlave slave = (DockerSlave) node;
+            if (slave.getTmpfsDir() != null && cloud.name.equals(slave.getCloudName()))
+                slaves.add(slave);
+        }
+        return slaves;
+    }
+
+    /**
+     * Measures the tmpfs directories of the slaves on each host, with one helper container per host.
+     */
+    @Extension
+    public static class Monitor extends AsyncPeriodicWork {
+
+        public Monitor() {
+            super("Docker tmpfs monitor");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 5 * MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            USAGE.keySet().retainAll(getContainerIds());
+
+            for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+                List<DockerSlave> slaves = getSlaves(cloud);
+                if (slaves.isEmpty())
+                    continue;
+
+                try {
+                    measure(cloud, slaves);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "Failed to measure tmpfs usage on " + cloud.name, ex);
+                }
+            }
+        }
+
+        private void measure(DockerCloud cloud, List<DockerSlave> slaves) {
+            Map<String, DockerSlave> byPath = new HashMap<String, DockerSlave>();
+            List<String> cmd = new ArrayList<String>();
+            cmd.add("du");
+            cmd.add("-sk");
+            for (DockerSlave slave : slaves) {
+                String path = MOUNT + slave.getTmpfsDir().substring(ROOT.length());
+                byPath.put(path, slave);
+                cmd.add(path);
+            }
+
+            HelperContainer result = HelperContainer.execute(cloud.getDockerClient(), slaves.get(0).getImage(),
+                    Collections.singletonMap(ROOT, MOUNT), null, cmd.toArray(new String[cmd.size()]));
+
+            for (String line : result.output.split("\n")) {
+                String[] fields = line.trim().split("\\s+", 2);
+                if (fields.length < 2)
+                    continue;
+                DockerSlave slave = byPath.get(fields[1]);
+                if (slave == null)
+                    continue;
+
+                long usedKb;
+                try {
+                    usedKb = Long.parseLong(fields[0]);
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                USAGE.put(slave.containerId, usedKb);
+                if (usedKb > slave.getTmpfsSizeMb() * 1024L) {
+                    LOGGER.log(Level.WARNING, "Slave " + slave.getNodeName() + " is using " + (usedKb / 1024)
+                            + "MB of tmpfs, over its " + slave.getTmpfsSizeMb() + "MB");
+                }
+            }
+        }
+
+        private static List<String> getContainerIds() {
+            List<String> ids = new ArrayList<String>();
+            for (Node node : Jenkins.getInstance().getNodes()) {
+                if (node instanceof DockerSlave)
+                    ids.add(((DockerSlave) node).containerId);
+            }
+            return ids;
+        }
+    }
+}
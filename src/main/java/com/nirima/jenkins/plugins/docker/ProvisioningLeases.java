@@ -0,0 +1,285 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.google.common.base.Objects;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.PeriodicWork;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leases on the containers each cloud is provisioning, but docker may not report yet.
+ *
+ * A lease is taken before a container is created and given back once its slave is online or
+ * has failed. Each lease expires after a while, so that one never given back can't hold a
+ * slot forever. Leases are saved every few seconds, so that after a restart the containers
+ * that were being provisioned can be found and cleaned up by {@link DockerSlaveReconciler}.
+ */
+public class ProvisioningLeases implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(ProvisioningLeases.class.getName());
+
+    private static ProvisioningLeases instance;
+
+    /**
+     * lease id -> lease.
+     */
+    private final Map<String, Lease> leases = new HashMap<String, Lease>();
+
+    /**
+     * Where to save the leases, or null not to.
+     */
+    private transient XmlFile file;
+
+    /**
+     * Whether there are changes not yet saved.
+     */
+    private transient boolean dirty;
+
+    public static synchronized ProvisioningLeases get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static ProvisioningLeases load() {
+        XmlFile file = new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-provisioning-leases.xml"));
+        ProvisioningLeases leases = null;
+        if (file.exists()) {
+            try {
+                leases = (ProvisioningLeases) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        if (leases == null)
+            leases = new ProvisioningLeases();
+        leases.file = file;
+        return leases;
+    }
+
+    /**
+     * Take a lease on one more container of the image, unless that would exceed a cap.
+     *
+     * @param owner        name of the cloud provisioning it
+     * @param runningTotal containers docker already reports
+     * @param runningImage containers of this image docker already reports
+     * @param ttl          time (ms) after which the lease expires if not given back
+     * @return null if a cap has been reached.
+     */
+    public synchronized Lease tryAcquire(String owner, String image, int runningTotal, int runningImage, int totalCap, int imageCap, long ttl) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        int estimatedTotal = runningTotal + getTotal(owner);
+        int currentProvisioning = get(owner, image);
+        int estimatedImage = runningImage + currentProvisioning;
+
+        if (estimatedTotal >= totalCap) {
+            LOGGER.log(Level.INFO, "Total container cap of " + totalCap +
+                    " reached, not provisioning.");
+            return null;      // maxed out
+        }
+
+        if (estimatedImage >= imageCap) {
+            LOGGER.log(Level.INFO, "AMI Instance cap of " + imageCap +
+                    " reached for ami " + image +
+                    ", not provisioning.");
+            return null;      // maxed out
+        }
+
+        LOGGER.log(Level.INFO,
+                "Provisioning for AMI " + image + "; " +
+                        "Estimated number of total slaves: "
+                        + String.valueOf(estimatedTotal) + "; " +
+                        "Estimated number of slaves for ami "
+                        + image + ": "
+                        + String.valueOf(estimatedImage)
+        );
+
+        Lease lease = new Lease(UUID.randomUUID().toString(), owner, image, now, ttl);
+        leases.put(lease.id, lease);
+        dirty = true;
+        return lease;
+    }
+
+    /**
+     * Record the container created under the lease, so that it can be found after a restart.
+     */
+    public synchronized void attach(Lease lease, String containerId) {
+        if (lease == null || !leases.containsKey(lease.id))
+            return;
+        lease.containerId = containerId;
+        dirty = true;
+    }
+
+    /**
+     * Give the lease back; harmless if it has already expired.
+     */
+    public synchronized void release(Lease lease) {
+        if (lease == null)
+            return;
+        if (leases.remove(lease.id) != null)
+            dirty = true;
+    }
+
+    /**
+     * Drop the leases that have expired.
+     *
+     * @return how many there were.
+     */
+    synchronized int expire(long now) {
+        int expired = 0;
+        for (Iterator<Lease> it = leases.values().iterator(); it.hasNext(); ) {
+            Lease lease = it.next();
+            if (lease.getExpiresAt() <= now) {
+                LOGGER.log(Level.WARNING, "Provisioning lease expired without being given back: " + lease);
+                it.remove();
+                expired++;
+            }
+        }
+        if (expired > 0)
+            dirty = true;
+        return expired;
+    }
+
+    /**
+     * Drop the cloud's leases taken before the restart, whose provisioning can no longer finish.
+     *
+     * @param existing ids of the containers on the cloud
+     * @param nodes    ids of the containers that are slaves
+     * @return containers created under those leases that never became slaves, to remove.
+     */
+    public synchronized List<String> reconcile(String owner, Collection<String> existing, Collection<String> nodes) {
+        List<String> orphans = new ArrayList<String>();
+        for (Iterator<Lease> it = leases.values().iterator(); it.hasNext(); ) {
+            Lease lease = it.next();
+            if (!lease.owner.equals(owner) || lease.isCurrent())
+                continue;
+            if (lease.containerId != null && existing.contains(lease.containerId) && !nodes.contains(lease.containerId))
+                orphans.add(lease.containerId);
+            it.remove();
+            dirty = true;
+        }
+        return orphans;
+    }
+
+    public synchronized int get(String owner, String image) {
+        int count = 0;
+        for (Lease lease : leases.values()) {
+            if (lease.owner.equals(owner) && lease.image.equals(image))
+                count++;
+        }
+        return count;
+    }
+
+    public synchronized int getTotal(String owner) {
+        int count = 0;
+        for (Lease lease : leases.values()) {
+            if (lease.owner.equals(owner))
+                count++;
+        }
+        return count;
+    }
+
+    public synchronized void save() throws IOException {
+        if (file == null || !dirty)
+            return;
+        file.write(this);
+        dirty = false;
+    }
+
+    public static class Lease {
+        public final String id;
+
+        /**
+         * Name of the cloud provisioning the container.
+         */
+        public final String owner;
+
+        public final String image;
+        public final long created;
+
+        /**
+         * Time (ms) after which the lease expires.
+         */
+        public final long ttl;
+
+        /**
+         * Null until the container has been created.
+         */
+        private volatile String containerId;
+
+        /**
+         * Whether the lease was taken since Jenkins started, rather than loaded from disk.
+         */
+        private final transient boolean current;
+
+        Lease(String id, String owner, String image, long created, long ttl) {
+            this.id = id;
+            this.owner = owner;
+            this.image = image;
+            this.created = created;
+            this.ttl = ttl;
+            this.current = true;
+        }
+
+        public String getContainerId() {
+            return containerId;
+        }
+
+        public long getExpiresAt() {
+            return created + ttl;
+        }
+
+        public boolean isCurrent() {
+            return current;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("owner", owner)
+                    .add("image", image)
+                    .add("created", created)
+                    .add("ttl", ttl)
+                    .add("containerId", containerId)
+                    .toString();
+        }
+    }
+
+    /**
+     * Expires leases and saves them every few seconds, rather than on every change.
+     */
+    @Extension
+    public static class Saver extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 5 * 1000;
+        }
+
+        @Override
+        protected void doRun() throws Exception {
+            ProvisioningLeases leases = get();
+            leases.expire(System.currentTimeMillis());
+            try {
+                leases.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to save docker provisioning leases", ex);
+            }
+        }
+    }
+}
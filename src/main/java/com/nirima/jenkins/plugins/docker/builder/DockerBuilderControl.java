@@ -1,6 +1,8 @@
 package com.nirima.jenkins.plugins.docker.builder;
 
 import com.nirima.docker.client.DockerException;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
 import hudson.DescriptorExtensionList;
 import hudson.Extension;
 import hudson.Launcher;
@@ -54,10 +56,15 @@ public class DockerBuilderControl extends Builder implements Serializable {
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 
+        Span span = Tracing.start("docker.builder." + option.getClass().getSimpleName())
+                .setAttribute("build", build.getFullDisplayName());
         try {
-            option.execute(build);
+            option.execute(build, listener);
         } catch (DockerException e) {
+            span.setError(e);
             throw new RuntimeException(e);
+        } finally {
+            span.end();
         }
 
         // Save the actions
@@ -1,7 +1,7 @@
 package com.nirima.jenkins.plugins.docker.builder;
 
 import com.google.common.base.Strings;
-import com.github.dockerjava.api.DockerClient;
+import com.nirima.docker.client.DockerClient;
 import com.nirima.jenkins.plugins.docker.DockerCloud;
 import com.nirima.jenkins.plugins.docker.DockerSlave;
 import hudson.model.AbstractBuild;
@@ -45,6 +45,6 @@ public abstract class DockerBuilderControlCloudOption extends DockerBuilderContr
     protected DockerClient getClient(AbstractBuild<?, ?> build) {
         DockerCloud cloud = getCloud(build);
 
-        return cloud.getDockerClient();
+        return cloud.getProvisioningClient();
     }
 }
@@ -3,6 +3,7 @@ package com.nirima.jenkins.plugins.docker.builder;
 import com.nirima.docker.client.DockerException;
 import com.nirima.jenkins.plugins.docker.action.DockerLaunchAction;
 import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
 import jenkins.model.Jenkins;
@@ -18,7 +19,7 @@ import java.util.logging.Logger;
 public abstract class DockerBuilderControlOption implements Describable<DockerBuilderControlOption>, Serializable {
     protected static final Logger LOGGER = Logger.getLogger(DockerBuilderControl.class.getName());
 
-    public abstract void execute(AbstractBuild<?, ?> build) throws DockerException, IOException;
+    public abstract void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException, IOException;
 
     protected DockerLaunchAction getLaunchAction(AbstractBuild<?, ?> build) {
         List<DockerLaunchAction> launchActionList = build.getActions(DockerLaunchAction.class);
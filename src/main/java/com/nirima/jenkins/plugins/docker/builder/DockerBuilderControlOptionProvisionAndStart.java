@@ -1,10 +1,10 @@
 package com.nirima.jenkins.plugins.docker.builder;
 
-import com.nirima.docker.client.DockerClient;
 import com.nirima.docker.client.DockerException;
 import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -24,16 +24,15 @@ public class DockerBuilderControlOptionProvisionAndStart extends DockerBuilderCo
     }
 
     @Override
-    public void execute(AbstractBuild<?, ?> build) throws DockerException {
+    public void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException {
 
         DockerTemplate template = getCloud(build).getTemplate(templateId);
 
+        // provisionNew starts the container; starting it again gets a 304 from the daemon.
         String containerId = template.provisionNew().getId();
 
-        LOGGER.info("Starting container " + containerId);
-        DockerClient client = getClient(build);
-        client.container(containerId).start();
-        getLaunchAction(build).started(client, containerId);
+        LOGGER.info("Started container " + containerId);
+        getLaunchAction(build).started(getClient(build), containerId);
     }
 
     @Extension
@@ -4,15 +4,19 @@ import com.cloudbees.jenkins.plugins.sshcredentials.SSHAuthenticator;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserListBoxModel;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.github.dockerjava.api.NotFoundException;
+import com.github.dockerjava.api.command.InspectImageResponse;
 import com.nirima.docker.client.DockerClient;
 import com.nirima.docker.client.DockerException;
 import com.nirima.docker.client.model.Identifier;
+import com.nirima.jenkins.plugins.docker.DockerApiGovernor;
 import com.nirima.jenkins.plugins.docker.DockerSimpleTemplate;
 import com.nirima.jenkins.plugins.docker.DockerTemplateBase;
 import com.trilead.ssh2.Connection;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
 import hudson.model.Describable;
 import hudson.model.ItemGroup;
 import hudson.plugins.sshslaves.SSHLauncher;
@@ -32,6 +36,29 @@ import java.io.InputStream;
  */
 public class DockerBuilderControlOptionRun extends DockerBuilderControlCloudOption {
 
+    /**
+     * When to pull the image before running it.
+     */
+    public enum PullPolicy {
+        ALWAYS("Always pull"),
+        /**
+         * Only checks that an image of that name is on the host, not that it matches the
+         * registry's: a tag that has been pushed again since, such as latest, is not pulled.
+         */
+        IF_NOT_PRESENT("Pull if not present locally"),
+        NEVER("Never pull");
+
+        private final String displayName;
+
+        PullPolicy(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
     public final String image;
     public final String dnsString;
     public final String dockerCommand;
@@ -42,6 +69,9 @@ public class DockerBuilderControlOptionRun extends DockerBuilderControlCloudOpti
     public final String hostname;
     public final String bindPorts;
     public final boolean bindAllPorts;
+    public final int memoryLimit;
+    public final int cpuShares;
+    private final PullPolicy pullPolicy;
 
     @DataBoundConstructor
     public DockerBuilderControlOptionRun( String cloudName,
@@ -53,7 +83,10 @@ public class DockerBuilderControlOptionRun extends DockerBuilderControlCloudOpti
             String hostname,
             String bindPorts,
             boolean bindAllPorts,
-            boolean privileged) {
+            boolean privileged,
+            int memoryLimit,
+            int cpuShares,
+            PullPolicy pullPolicy) {
         super(cloudName);
         this.image = image;
 
@@ -66,29 +99,66 @@ public class DockerBuilderControlOptionRun extends DockerBuilderControlCloudOpti
         this.hostname = hostname;
         this.bindPorts = bindPorts;
         this.bindAllPorts = bindAllPorts;
+        this.memoryLimit = memoryLimit;
+        this.cpuShares = cpuShares;
+        this.pullPolicy = pullPolicy;
+    }
+
+    public PullPolicy getPullPolicy() {
+        // Configurations from before the policy existed always pulled.
+        return pullPolicy == null ? PullPolicy.ALWAYS : pullPolicy;
     }
 
     @Override
-    public void execute(AbstractBuild<?, ?> build) throws DockerException, IOException {
+    public void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException, IOException {
         DockerClient client = getClient(build);
 
-        InputStream result = client.createPullCommand()
-                .image( Identifier.fromCompoundString(image))
-                .execute();
-
-        String res = IOUtils.toString(result);
-        System.out.println(res);
+        if( needsPull(build, listener) ) {
+            listener.getLogger().println("Pulling image " + image);
+            DockerApiGovernor.get(getCloud(build)).acquire(DockerApiGovernor.Operation.PULL);
+            InputStream result = client.createPullCommand()
+                    .image( Identifier.fromCompoundString(image))
+                    .execute();
+            try {
+                // Stream the progress rather than buffering the whole output.
+                IOUtils.copy(result, listener.getLogger());
+            } finally {
+                IOUtils.closeQuietly(result);
+            }
+        }
 
         DockerTemplateBase template = new DockerSimpleTemplate(image,
                 dnsString, dockerCommand,
-                volumesString, volumesFrom, lxcConfString, hostname, bindPorts, bindAllPorts, privileged);
+                volumesString, volumesFrom, lxcConfString, hostname, bindPorts, bindAllPorts, privileged,
+                memoryLimit, cpuShares);
 
+        DockerApiGovernor.get(getCloud(build)).acquire(DockerApiGovernor.Operation.CREATE);
         String containerId = template.provisionNew(client).getId();
 
         LOGGER.info("Started container " + containerId);
         getLaunchAction(build).started(client, containerId);
     }
 
+    private boolean needsPull(AbstractBuild<?, ?> build, BuildListener listener) {
+        switch (getPullPolicy()) {
+            case NEVER:
+                return false;
+            case IF_NOT_PRESENT:
+                // Presence only, not digests; see PullPolicy. The inspect goes through the cloud's
+                // docker-java client and the pull through the jDocker one, to the same daemon.
+                try {
+                    DockerApiGovernor.get(getCloud(build)).acquire(DockerApiGovernor.Operation.INSPECT);
+                    InspectImageResponse local = getCloud(build).getDockerClient().inspectImageCmd(image).exec();
+                    listener.getLogger().println("Image " + image + " is present locally as " + local.getId() + ", not pulling");
+                    return false;
+                } catch (NotFoundException ex) {
+                    return true;
+                }
+            default:
+                return true;
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends DockerBuilderControlOptionDescriptor  {
         @Override
@@ -2,8 +2,10 @@ package com.nirima.jenkins.plugins.docker.builder;
 
 import com.nirima.docker.client.DockerClient;
 import com.nirima.docker.client.DockerException;
+import com.nirima.jenkins.plugins.docker.DockerApiGovernor;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -17,10 +19,11 @@ public class DockerBuilderControlOptionStart extends DockerBuilderControlOptionS
     }
 
     @Override
-    public void execute(AbstractBuild<?, ?> build) throws DockerException {
+    public void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException {
 
         LOGGER.info("Starting container " + containerId);
         DockerClient client = getClient(build);
+        DockerApiGovernor.get(getCloud(build)).acquire(DockerApiGovernor.Operation.CREATE);
         client.container(containerId).start();
         getLaunchAction(build).started(client, containerId);
 
@@ -2,8 +2,10 @@ package com.nirima.jenkins.plugins.docker.builder;
 
 import com.nirima.docker.client.DockerClient;
 import com.nirima.docker.client.DockerException;
+import com.nirima.jenkins.plugins.docker.DockerApiGovernor;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -20,9 +22,10 @@ public class DockerBuilderControlOptionStop extends DockerBuilderControlOptionSt
     }
 
     @Override
-    public void execute(AbstractBuild<?, ?> build) throws DockerException {
+    public void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException {
         LOGGER.info("Stopping container " + containerId);
         DockerClient client = getClient(build);
+        DockerApiGovernor.get(getCloud(build)).acquire(DockerApiGovernor.Operation.CREATE);
         client.container(containerId).stop();
         getLaunchAction(build).stopped(client, containerId);
         if( remove )
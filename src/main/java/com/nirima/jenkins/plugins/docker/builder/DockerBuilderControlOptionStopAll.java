@@ -4,6 +4,7 @@ import com.nirima.docker.client.DockerException;
 import com.nirima.jenkins.plugins.docker.action.DockerLaunchAction;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
@@ -20,7 +21,7 @@ public class DockerBuilderControlOptionStopAll extends DockerBuilderControlOptio
     }
 
     @Override
-    public void execute(AbstractBuild<?, ?> build) throws DockerException {
+    public void execute(AbstractBuild<?, ?> build, BuildListener listener) throws DockerException {
         LOGGER.info("Stopping all containers");
         for(DockerLaunchAction.Item containerItem : getLaunchAction(build).getRunning()) {
             try {
@@ -22,6 +22,7 @@ import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.trilead.ssh2.Connection;
 import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerCpuAllocator;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -56,6 +57,19 @@ public class DockerBuilderNewTemplate extends Builder implements Serializable {
     public final boolean bindAllPorts;
     public final boolean privileged;
     public final String hostname;
+    public final int memoryLimit;
+    public final int cpuShares;
+    public final DockerCpuAllocator.Mode cpuPinning;
+    public final int cpuCount;
+    public final String workspaceHostDir;
+    public final String cacheHostDir;
+    public final String cachePathsString;
+    public final int tmpfsSizeMb;
+    public final String tmpfsPathsString;
+    public final int provisionTimeout;
+    public final boolean retryOnTimeout;
+    public final int shareWeight;
+    public final int shareMinimum;
 
     @DataBoundConstructor
     public DockerBuilderNewTemplate(String image, String labelString, String remoteFs, String remoteFsMapping,
@@ -69,7 +83,20 @@ public class DockerBuilderNewTemplate extends Builder implements Serializable {
                                               String hostname,
                                               String bindPorts,
                                               boolean bindAllPorts,
-                                              boolean privileged) {
+                                              boolean privileged,
+                                              int memoryLimit,
+                                              int cpuShares,
+                                              DockerCpuAllocator.Mode cpuPinning,
+                                              int cpuCount,
+                                              String workspaceHostDir,
+                                              String cacheHostDir,
+                                              String cachePathsString,
+                                              int tmpfsSizeMb,
+                                              String tmpfsPathsString,
+                                              int provisionTimeout,
+                                              boolean retryOnTimeout,
+                                              int shareWeight,
+                                              int shareMinimum) {
 
         this.image = image;
         this.labelString = labelString;
@@ -91,6 +118,19 @@ public class DockerBuilderNewTemplate extends Builder implements Serializable {
         this.bindAllPorts = bindAllPorts;
         this.privileged = privileged;
         this.hostname = hostname;
+        this.memoryLimit = memoryLimit;
+        this.cpuShares = cpuShares;
+        this.cpuPinning = cpuPinning;
+        this.cpuCount = cpuCount;
+        this.workspaceHostDir = workspaceHostDir;
+        this.cacheHostDir = cacheHostDir;
+        this.cachePathsString = cachePathsString;
+        this.tmpfsSizeMb = tmpfsSizeMb;
+        this.tmpfsPathsString = tmpfsPathsString;
+        this.provisionTimeout = provisionTimeout;
+        this.retryOnTimeout = retryOnTimeout;
+        this.shareWeight = shareWeight;
+        this.shareMinimum = shareMinimum;
     }
 
     @Override
@@ -132,7 +172,10 @@ public class DockerBuilderNewTemplate extends Builder implements Serializable {
                         prefixStartSlaveCmd,
                         suffixStartSlaveCmd, instanceCapStr,
                         dnsString, dockerCommand,
-                        volumesString, volumesFrom, lxcConfString, hostname, bindPorts, bindAllPorts, privileged);
+                        volumesString, volumesFrom, lxcConfString, hostname, bindPorts, bindAllPorts, privileged,
+                        memoryLimit, cpuShares, cpuPinning, cpuCount, workspaceHostDir,
+                        cacheHostDir, cachePathsString, tmpfsSizeMb, tmpfsPathsString,
+                        provisionTimeout, retryOnTimeout, shareWeight, shareMinimum, null);
                 ((DockerCloud) c).addTemplate(t);
             }
         }
@@ -7,8 +7,12 @@ import com.nirima.docker.client.DockerException;
 import com.nirima.docker.client.command.BuildCommandResponse;
 import com.nirima.docker.client.command.PushCommandResponse;
 import com.nirima.docker.client.model.Identifier;
+import com.nirima.jenkins.plugins.docker.DockerApiGovernor;
 import com.nirima.jenkins.plugins.docker.DockerSlave;
 import com.nirima.jenkins.plugins.docker.action.DockerBuildImageAction;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerImageUsage;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
@@ -48,6 +52,21 @@ public class DockerBuilderPublisher extends Builder implements Serializable {
 
     @Override
     public boolean perform(final AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
+        Span span = Tracing.start("docker.build").setAttribute("build", build.getFullDisplayName());
+        try {
+            return build(build, launcher, listener);
+        } catch (IOException ex) {
+            span.setError(ex);
+            throw ex;
+        } catch (RuntimeException ex) {
+            span.setError(ex);
+            throw ex;
+        } finally {
+            span.end();
+        }
+    }
+
+    private boolean build(final AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
 
         listener.getLogger().println("Docker Build");
 
@@ -57,6 +76,7 @@ public class DockerBuilderPublisher extends Builder implements Serializable {
         // Marshal the builder across the wire.
         DockerClient client = getDockerClient(build);
         final DockerClient.Builder builder = DockerClient.builder().fromClient(client);
+        acquire(build, DockerApiGovernor.Operation.BUILD);
 
         BuildCommandResponse response = fpChild.act(new FilePath.FileCallable<BuildCommandResponse>() {
             public BuildCommandResponse invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
@@ -95,6 +115,10 @@ public class DockerBuilderPublisher extends Builder implements Serializable {
         build.addAction( new DockerBuildImageAction(url, id.get(), tagToUse, cleanupWithJenkinsJobDelete, pushOnSuccess) );
         build.save();
 
+        if( !cleanImages && build.getBuiltOn() instanceof DockerSlave ) {
+            DockerImageUsage.get().recordUse(((DockerSlave) build.getBuiltOn()).getDockerCloud(), tagToUse);
+        }
+
 
         if( pushOnSuccess ) {
 
@@ -107,6 +131,8 @@ public class DockerBuilderPublisher extends Builder implements Serializable {
 
             String repositoryName = identifier.repository.name;
 
+            acquire(build, DockerApiGovernor.Operation.PULL);
+            Tracing.current().setAttribute("push", repositoryName);
             PushCommandResponse pushResponse = client.createPushCommand()
                     .name(repositoryName)
                     .execute();
@@ -155,6 +181,13 @@ public class DockerBuilderPublisher extends Builder implements Serializable {
         return null;
     }
 
+    private static void acquire(AbstractBuild build, DockerApiGovernor.Operation op) {
+        Node node = build.getBuiltOn();
+        if( node instanceof DockerSlave ) {
+            DockerApiGovernor.get(((DockerSlave) node).getDockerCloud()).acquire(op);
+        }
+    }
+
     private String getUrl(AbstractBuild build) {
         Node node = build.getBuiltOn();
         if( node instanceof DockerSlave ) {
@@ -0,0 +1,155 @@
+package com.nirima.jenkins.plugins.docker.cache;
+
+import com.github.dockerjava.api.DockerClient;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import com.nirima.jenkins.plugins.docker.PluginImpl;
+import com.nirima.jenkins.plugins.docker.utils.HelperContainer;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the seeds of the dependency caches warm and tidy.
+ *
+ * When a slave of a template with caches terminates after a successful build, and the seed is
+ * older than the refresh interval, the slave's caches become the new seed; the copy runs in the
+ * background and the container is removed once it is done. Seeds that are no longer current,
+ * and that no running slave started from, are removed in the background.
+ */
+@Extension
+public class DockerCacheRefresh extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(DockerCacheRefresh.class.getName());
+
+    /**
+     * Hours between promotions of a cache.
+     */
+    private static final int REFRESH_HOURS = Integer.getInteger(DockerCacheRefresh.class.getName() + ".refreshHours", 6);
+
+    /**
+     * Minutes a promotion may take before its helper container is killed.
+     */
+    private static final long PROMOTE_TIMEOUT_MINUTES = Long.getLong(DockerCacheRefresh.class.getName() + ".promoteTimeoutMinutes", 30);
+
+    private static final String WORK_MOUNT = "/cache";
+
+    /**
+     * Caches with a promotion under way.
+     */
+    private static final Set<String> promoting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public DockerCacheRefresh() {
+        super("Docker cache refresh");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    /**
+     * Copy the caches of a stopped slave container into new seeds, for those that are due, in the
+     * background, then run {@code then}, which removes the container. Promotions of one cache
+     * don't overlap: a cache already being promoted is left to that promotion.
+     *
+     * @return false if none were due, and nothing was started: the caller removes the container itself.
+     */
+    public static boolean promote(final DockerCloud cloud, final DockerTemplate template, final String containerId, final Runnable then) {
+        long due = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(REFRESH_HOURS);
+
+        final Map<String, DockerCaches.Cache> caches = new LinkedHashMap<String, DockerCaches.Cache>();
+        for (String path : template.getCachePaths()) {
+            DockerCaches.Cache cache = DockerCaches.get().getCache(cloud, template, path);
+            if (cache.getPromotedAt() <= due && promoting.add(getKey(cache)))
+                caches.put(path, cache);
+        }
+        if (caches.isEmpty())
+            return false;
+
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    for (Map.Entry<String, DockerCaches.Cache> entry : caches.entrySet()) {
+                        try {
+                            promote(cloud, template, containerId, entry.getKey(), entry.getValue());
+                        } finally {
+                            promoting.remove(getKey(entry.getValue()));
+                        }
+                    }
+                } finally {
+                    then.run();
+                }
+            }
+        });
+        return true;
+    }
+
+    private static void promote(DockerCloud cloud, DockerTemplate template, String containerId, String path, DockerCaches.Cache cache) {
+        long version = System.currentTimeMillis();
+        String seed = WORK_MOUNT + "/" + DockerCaches.Cache.getSeedName(version);
+        try {
+            HelperContainer result = HelperContainer.execute(cloud.getDockerClient(), template.image,
+                    Collections.singletonMap(cache.hostDir + "/" + cache.getDirName(), WORK_MOUNT), containerId,
+                    TimeUnit.MINUTES.toMillis(PROMOTE_TIMEOUT_MINUTES),
+                    "/bin/sh", "-c", "mkdir -p " + seed + " && cp -a " + DockerTemplate.quote(path + "/.") + " " + seed + "/ && du -sk " + seed);
+            if (result.status != 0) {
+                LOGGER.log(Level.WARNING, "Promoting cache " + path + " of " + containerId + " exited with " + result.status);
+                DockerCaches.get().recordAbandoned(cache, version);
+                return;
+            }
+
+            DockerCaches.get().recordPromotion(cache, version, parseSize(result.output));
+            LOGGER.log(Level.INFO, "Promoted cache " + path + " of " + containerId + " on " + cloud.name);
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to promote cache " + path + " of " + containerId, ex);
+        }
+    }
+
+    private static String getKey(DockerCaches.Cache cache) {
+        return cache.cloud + ":" + cache.hostDir + "/" + cache.getDirName();
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            for (DockerCaches.Cache cache : DockerCaches.get().getCaches(cloud)) {
+                for (Long version : DockerCaches.get().getUnusedVersions(cache)) {
+                    try {
+                        DockerClient client = cloud.getDockerClient();
+                        int status = HelperContainer.run(client, cache.image,
+                                Collections.singletonMap(cache.hostDir + "/" + cache.getDirName(), WORK_MOUNT),
+                                "rm", "-rf", WORK_MOUNT + "/" + DockerCaches.Cache.getSeedName(version));
+                        if (status == 0) {
+                            DockerCaches.get().recordRemoval(cache, version);
+                            listener.getLogger().println("Removed seed " + version + " of " + cache.path + " on " + cloud.name);
+                        }
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.WARNING, "Failed to remove seed " + version + " of " + cache.path + " on " + cloud.name, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Size (KB) from the output of du -sk.
+     */
+    private static long parseSize(String output) {
+        try {
+            return Long.parseLong(output.trim().split("\\s+")[0]);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
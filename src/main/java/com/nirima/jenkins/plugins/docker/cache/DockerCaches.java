@@ -0,0 +1,265 @@
+package com.nirima.jenkins.plugins.docker.cache;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerSlave;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import hudson.XmlFile;
+import hudson.model.Node;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dependency caches of templates, seeded on each docker host.
+ *
+ * Each cache path of a template has versioned seed directories under the template's cache
+ * directory on the host. A new container mounts the current seed read-only and copies it into
+ * its own cache path before starting, so builds never write to the shared copy. Now and then
+ * the cache of a successful build is promoted to be the next seed (see {@link DockerCacheRefresh}),
+ * and seeds no container is using any more are removed.
+ */
+public class DockerCaches implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DockerCaches.class.getName());
+
+    /**
+     * Where seeds are mounted in a slave container; the n-th cache path is under /n.
+     */
+    public static final String SEED_MOUNT = "/.docker-cache";
+
+    /**
+     * How long a superseded seed is kept for containers that were being created as it was replaced (ms).
+     */
+    private static final long GRACE = 60 * 60 * 1000;
+
+    private static DockerCaches instance;
+
+    /**
+     * cloud|cache dir|path -> cache.
+     */
+    private final Map<String, Cache> caches = new LinkedHashMap<String, Cache>();
+
+    public static synchronized DockerCaches get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DockerCaches load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DockerCaches) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new DockerCaches();
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-caches.xml"));
+    }
+
+    /**
+     * @return the cache of the template's path on the cloud, created if need be.
+     */
+    public synchronized Cache getCache(DockerCloud cloud, DockerTemplate template, String path) {
+        String key = cloud.name + "|" + template.cacheHostDir + "|" + path;
+        Cache cache = caches.get(key);
+        if (cache == null) {
+            cache = new Cache(cloud.name, template.cacheHostDir, template.image, path);
+            caches.put(key, cache);
+        }
+        return cache;
+    }
+
+    public synchronized List<Cache> getCaches(DockerCloud cloud) {
+        List<Cache> list = new ArrayList<Cache>();
+        for (Cache cache : caches.values()) {
+            if (cache.cloud.equals(cloud.name))
+                list.add(cache);
+        }
+        return list;
+    }
+
+    /**
+     * A container of the template has started with the current seeds.
+     */
+    public synchronized void recordStart(DockerCloud cloud, DockerTemplate template, String containerId) {
+        for (String path : template.getCachePaths()) {
+            Cache cache = getCache(cloud, template, path);
+            if (cache.current == 0) {
+                cache.misses++;
+            } else {
+                cache.hits++;
+                cache.users.put(containerId, cache.current);
+            }
+        }
+        save();
+    }
+
+    /**
+     * A new seed has been copied from a build.
+     */
+    public synchronized void recordPromotion(Cache cache, long version, long sizeKb) {
+        cache.current = version;
+        cache.promotedAt = System.currentTimeMillis();
+        cache.sizeKb = sizeKb;
+        if (!cache.versions.contains(version))
+            cache.versions.add(version);
+        save();
+    }
+
+    /**
+     * A promotion failed part way; what it copied is left for cleanup.
+     */
+    public synchronized void recordAbandoned(Cache cache, long version) {
+        if (!cache.versions.contains(version))
+            cache.versions.add(version);
+        save();
+    }
+
+    public synchronized void recordRemoval(Cache cache, long version) {
+        cache.versions.remove(version);
+        save();
+    }
+
+    /**
+     * @return the seed versions of the cache that no running slave was started with, other than the current one.
+     */
+    public synchronized List<Long> getUnusedVersions(Cache cache) {
+        Set<String> running = new HashSet<String>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (node instanceof DockerSlave)
+                running.add(((DockerSlave) node).containerId);
+        }
+        cache.users.keySet().retainAll(running);
+
+        List<Long> unused = new ArrayList<Long>();
+        if (System.currentTimeMillis() - cache.promotedAt < GRACE)
+            return unused;
+
+        for (Long version : cache.versions) {
+            if (version != cache.current && !cache.users.containsValue(version))
+                unused.add(version);
+        }
+        return unused;
+    }
+
+    /**
+     * Summary for the management page, e.g. "2 caches, 1.2 GB, 87% hits".
+     */
+    public synchronized String getSummary(DockerCloud cloud) {
+        List<Cache> list = getCaches(cloud);
+        if (list.isEmpty())
+            return "";
+
+        long sizeKb = 0;
+        long hits = 0;
+        long total = 0;
+        for (Cache cache : list) {
+            sizeKb += cache.sizeKb;
+            hits += cache.hits;
+            total += cache.hits + cache.misses;
+        }
+
+        return list.size() + (list.size() == 1 ? " cache, " : " caches, ")
+                + String.format("%.1f GB", sizeKb / (1024.0 * 1024.0)) + ", "
+                + (total == 0 ? "no starts yet" : (100 * hits / total) + "% hits");
+    }
+
+    public synchronized void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save docker caches", e);
+        }
+    }
+
+    /**
+     * One cache path of a template on one docker host.
+     */
+    public static class Cache {
+        public final String cloud;
+
+        /**
+         * Directory on the host holding the template's caches.
+         */
+        public final String hostDir;
+
+        /**
+         * Image of the template, used for helper containers.
+         */
+        public final String image;
+
+        /**
+         * Path of the cache in the slave container.
+         */
+        public final String path;
+
+        private volatile long current;
+        private long promotedAt;
+        private long sizeKb;
+        private long hits;
+        private long misses;
+        private final List<Long> versions = new ArrayList<Long>();
+
+        /**
+         * container id -> seed version it started with.
+         */
+        private final Map<String, Long> users = new HashMap<String, Long>();
+
+        Cache(String cloud, String hostDir, String image, String path) {
+            this.cloud = cloud;
+            this.hostDir = hostDir;
+            this.image = image;
+            this.path = path;
+        }
+
+        /**
+         * Directory of the cache under {@link #hostDir}, e.g. "home_jenkins_.m2".
+         */
+        public String getDirName() {
+            return path.replaceAll("^/+", "").replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
+
+        public static String getSeedName(long version) {
+            return "seed-" + version;
+        }
+
+        /**
+         * @return the host path of the current seed, or null if there isn't one yet.
+         */
+        public String getSeedPath() {
+            return current == 0 ? null : hostDir + "/" + getDirName() + "/" + getSeedName(current);
+        }
+
+        public long getPromotedAt() {
+            return promotedAt;
+        }
+
+        public long getSizeKb() {
+            return sizeKb;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+    }
+}
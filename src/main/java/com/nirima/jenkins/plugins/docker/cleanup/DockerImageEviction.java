@@ -0,0 +1,176 @@
+package com.nirima.jenkins.plugins.docker.cleanup;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Image;
+import com.google.common.base.Objects;
+import com.nirima.jenkins.plugins.docker.DockerApiGovernor;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import com.nirima.jenkins.plugins.docker.PluginImpl;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the images on each docker host within the disk budget of its cloud,
+ * by removing the least recently used images first.
+ *
+ * Images referenced by a {@link DockerTemplate}, or used by a container, are never removed.
+ */
+@Extension
+public class DockerImageEviction extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(DockerImageEviction.class.getName());
+
+    public DockerImageEviction() {
+        super("Docker image eviction");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return 15 * MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            if (cloud.getImageDiskBudget() <= 0)
+                continue;
+
+            try {
+                DockerImageUsage.EvictionReport report = evict(cloud, listener.getLogger());
+                DockerImageUsage.get().setReport(cloud, report);
+                listener.getLogger().println(cloud.name + ": " + report);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to evict images on " + cloud, ex);
+            }
+        }
+
+        DockerImageUsage.get().save();
+    }
+
+    private DockerImageUsage.EvictionReport evict(DockerCloud cloud, PrintStream logger) {
+        DockerClient client = cloud.getDockerClient();
+        DockerApiGovernor governor = DockerApiGovernor.get(cloud);
+        DockerImageUsage usage = DockerImageUsage.get();
+        long budget = cloud.getImageDiskBudget();
+
+        long used = diskUsage(client, governor);
+        if (used <= budget)
+            return new DockerImageUsage.EvictionReport(used, budget, 0, 0);
+
+        Set<String> pinned = new HashSet<String>();
+        for (DockerTemplate template : cloud.templates) {
+            pinned.add(DockerImageUsage.normalize(template.image));
+        }
+        governor.acquire(DockerApiGovernor.Operation.LIST);
+        for (Container container : client.listContainersCmd().withShowAll(true).exec()) {
+            pinned.add(container.getImage());
+            pinned.add(DockerImageUsage.normalize(container.getImage()));
+        }
+
+        List<String> allTags = new ArrayList<String>();
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        governor.acquire(DockerApiGovernor.Operation.LIST);
+        for (Image image : client.listImagesCmd().exec()) {
+            String[] tags = Objects.firstNonNull(image.getRepoTags(), new String[0]);
+            boolean isPinned = pinned.contains(image.getId());
+            long lastUsed = image.getCreated() * 1000;
+
+            for (String tag : tags) {
+                allTags.add(tag);
+                isPinned |= pinned.contains(DockerImageUsage.normalize(tag));
+                Long when = usage.getLastUsed(cloud, tag);
+                if (when != null)
+                    lastUsed = Math.max(lastUsed, when);
+            }
+
+            candidates.add(new Candidate(image.getId(), image.getSize(), lastUsed, isPinned));
+        }
+        usage.retain(cloud, allTags);
+
+        int removed = 0;
+        for (Candidate victim : selectForEviction(candidates, used, budget)) {
+            try {
+                logger.println("Removing image " + victim.id + " (last used " + new Date(victim.lastUsed) + ")");
+                governor.acquire(DockerApiGovernor.Operation.CREATE);
+                client.removeImageCmd(victim.id).exec();
+                removed++;
+            } catch (Exception ex) {
+                LOGGER.log(Level.INFO, "Could not remove image " + victim.id + " from " + cloud, ex);
+            }
+        }
+
+        long reclaimed = removed == 0 ? 0 : Math.max(0, used - diskUsage(client, governor));
+        return new DockerImageUsage.EvictionReport(used, budget, removed, reclaimed);
+    }
+
+    /**
+     * Bytes used by all image layers on the host, including intermediate ones.
+     */
+    private static long diskUsage(DockerClient client, DockerApiGovernor governor) {
+        governor.acquire(DockerApiGovernor.Operation.LIST);
+        long total = 0;
+        for (Image layer : client.listImagesCmd().withShowAll(true).exec()) {
+            total += layer.getSize();
+        }
+        return total;
+    }
+
+    /**
+     * Pick the least recently used, unpinned images until the estimated usage drops
+     * below the budget.
+     */
+    static List<Candidate> selectForEviction(List<Candidate> candidates, long used, long budget) {
+        List<Candidate> sorted = new ArrayList<Candidate>();
+        for (Candidate candidate : candidates) {
+            if (!candidate.pinned)
+                sorted.add(candidate);
+        }
+
+        Collections.sort(sorted, new Comparator<Candidate>() {
+            public int compare(Candidate o1, Candidate o2) {
+                return o1.lastUsed < o2.lastUsed ? -1 : (o1.lastUsed == o2.lastUsed ? 0 : 1);
+            }
+        });
+
+        List<Candidate> victims = new ArrayList<Candidate>();
+        for (Candidate candidate : sorted) {
+            if (used <= budget)
+                break;
+            victims.add(candidate);
+            used -= candidate.size;
+        }
+        return victims;
+    }
+
+    static class Candidate {
+        final String id;
+        /**
+         * Bytes of the image's own layer, as counted by {@link #diskUsage}; shared parent layers
+         * are not freed by removing it.
+         */
+        final long size;
+        final long lastUsed;
+        final boolean pinned;
+
+        Candidate(String id, long size, long lastUsed, boolean pinned) {
+            this.id = id;
+            this.size = size;
+            this.lastUsed = lastUsed;
+            this.pinned = pinned;
+        }
+    }
+}
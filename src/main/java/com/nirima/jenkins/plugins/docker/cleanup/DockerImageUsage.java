@@ -0,0 +1,162 @@
+package com.nirima.jenkins.plugins.docker.cleanup;
+
+import com.google.common.base.Strings;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records when images were last used on each docker cloud, so that
+ * {@link DockerImageEviction} can evict the least recently used ones first.
+ *
+ * Usage is recorded by slave provisioning and by image builds, and is
+ * persisted so that a restart does not make every image look unused.
+ */
+public class DockerImageUsage implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DockerImageUsage.class.getName());
+
+    private static DockerImageUsage instance;
+
+    /**
+     * cloud name -> image reference -> last used (ms).
+     */
+    private final Map<String, Map<String, Long>> lastUsed = new ConcurrentHashMap<String, Map<String, Long>>();
+
+    /**
+     * cloud name -> result of the last eviction pass.
+     */
+    private transient Map<String, EvictionReport> reports;
+
+    public DockerImageUsage() {
+        readResolve();
+    }
+
+    public static synchronized DockerImageUsage get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DockerImageUsage load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DockerImageUsage) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new DockerImageUsage();
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-image-usage.xml"));
+    }
+
+    protected Object readResolve() {
+        reports = new ConcurrentHashMap<String, EvictionReport>();
+        return this;
+    }
+
+    /**
+     * Normalise an image reference, so that "ubuntu" and "ubuntu:latest" match.
+     */
+    public static String normalize(String image) {
+        if (Strings.isNullOrEmpty(image))
+            return image;
+        int slash = image.lastIndexOf('/');
+        if (image.indexOf(':', slash + 1) < 0)
+            return image + ":latest";
+        return image;
+    }
+
+    public void recordUse(DockerCloud cloud, String image) {
+        if (cloud == null || Strings.isNullOrEmpty(image))
+            return;
+
+        Map<String, Long> images = lastUsed.get(cloud.name);
+        if (images == null) {
+            synchronized (lastUsed) {
+                images = lastUsed.get(cloud.name);
+                if (images == null) {
+                    images = new ConcurrentHashMap<String, Long>();
+                    lastUsed.put(cloud.name, images);
+                }
+            }
+        }
+        images.put(normalize(image), System.currentTimeMillis());
+    }
+
+    /**
+     * @return when the image was last used on the cloud, or null if we have no record of it.
+     */
+    public Long getLastUsed(DockerCloud cloud, String image) {
+        Map<String, Long> images = lastUsed.get(cloud.name);
+        if (images == null)
+            return null;
+        return images.get(normalize(image));
+    }
+
+    /**
+     * Drop records for images that no longer exist on the cloud.
+     */
+    public void retain(DockerCloud cloud, Iterable<String> existing) {
+        Map<String, Long> images = lastUsed.get(cloud.name);
+        if (images == null)
+            return;
+
+        Set<String> kept = new HashSet<String>();
+        for (String image : existing) {
+            kept.add(normalize(image));
+        }
+        images.keySet().retainAll(kept);
+    }
+
+    public void setReport(DockerCloud cloud, EvictionReport report) {
+        reports.put(cloud.name, report);
+    }
+
+    public EvictionReport getReport(DockerCloud cloud) {
+        return reports.get(cloud.name);
+    }
+
+    public synchronized void save() throws IOException {
+        getConfigFile().write(this);
+    }
+
+    /**
+     * Outcome of an eviction pass on one cloud.
+     */
+    public static class EvictionReport {
+        public final long when;
+        public final long usedBytes;
+        public final long budgetBytes;
+        public final int removedImages;
+        public final long reclaimedBytes;
+
+        public EvictionReport(long usedBytes, long budgetBytes, int removedImages, long reclaimedBytes) {
+            this.when = System.currentTimeMillis();
+            this.usedBytes = usedBytes;
+            this.budgetBytes = budgetBytes;
+            this.removedImages = removedImages;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Used " + (usedBytes / (1024 * 1024)) + "MB of " + (budgetBytes / (1024 * 1024)) + "MB; "
+                    + "removed " + removedImages + " image(s), reclaimed " + (reclaimedBytes / (1024 * 1024)) + "MB";
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.nirima.jenkins.plugins.docker.cleanup;
+
+import com.nirima.docker.client.DockerRegistryClient;
+import com.nirima.docker.client.model.Identifier;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent queue of registry tags to delete.
+ *
+ * Deleting a run only enqueues its tags; they are removed from the registry in the
+ * background, grouped by registry and repository, with one client per registry and
+ * exponential back-off on failure. The queue is saved to disk once a burst of tags has been
+ * queued, and after each drain, so pending deletions survive a restart.
+ */
+public class DockerRegistryCleanup implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DockerRegistryCleanup.class.getName());
+
+    /**
+     * Give up on a tag after this many failed attempts.
+     */
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static final long INITIAL_BACKOFF = 30 * 1000;
+    private static final long MAX_BACKOFF = 60 * 60 * 1000;
+
+    private static DockerRegistryCleanup instance;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private transient Map<String, DockerRegistryClient> clients;
+    private transient AtomicBoolean draining;
+
+    /**
+     * Whether a drain has been submitted that hasn't started yet.
+     */
+    private transient AtomicBoolean scheduled;
+
+    /**
+     * Whether the queue has changed since it was last saved.
+     */
+    private transient AtomicBoolean dirty;
+
+    public DockerRegistryCleanup() {
+        readResolve();
+    }
+
+    public static synchronized DockerRegistryCleanup get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DockerRegistryCleanup load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DockerRegistryCleanup) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new DockerRegistryCleanup();
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-registry-cleanup.xml"));
+    }
+
+    protected Object readResolve() {
+        clients = new ConcurrentHashMap<String, DockerRegistryClient>();
+        draining = new AtomicBoolean();
+        scheduled = new AtomicBoolean();
+        dirty = new AtomicBoolean();
+        return this;
+    }
+
+    /**
+     * Queue a tag for deletion, and kick off a save and a drain in the background unless they
+     * are already waiting to start, so a burst of tags is saved once.
+     */
+    public void enqueue(String taggedId) {
+        synchronized (entries) {
+            entries.add(new Entry(taggedId));
+        }
+        dirty.set(true);
+
+        if (!scheduled.compareAndSet(false, true))
+            return;
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                // Tags queued from now on need another save and drain.
+                scheduled.set(false);
+                saveIfDirty();
+                drain();
+            }
+        });
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Delete every tag that is due. Only one drain runs at a time.
+     */
+    public void drain() {
+        if (!draining.compareAndSet(false, true))
+            return;
+
+        try {
+            long now = System.currentTimeMillis();
+
+            // registry -> repository -> entries
+            Map<String, Map<String, List<Entry>>> grouped = new LinkedHashMap<String, Map<String, List<Entry>>>();
+            synchronized (entries) {
+                for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+                    Entry entry = it.next();
+                    if (entry.notBefore > now)
+                        continue;
+
+                    Identifier identifier;
+                    try {
+                        identifier = Identifier.fromCompoundString(entry.taggedId);
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.WARNING, "Dropping unparseable tag " + entry.taggedId, ex);
+                        it.remove();
+                        dirty.set(true);
+                        continue;
+                    }
+
+                    String registry = identifier.repository.getURL().toString();
+                    Map<String, List<Entry>> repositories = grouped.get(registry);
+                    if (repositories == null) {
+                        repositories = new LinkedHashMap<String, List<Entry>>();
+                        grouped.put(registry, repositories);
+                    }
+                    List<Entry> tags = repositories.get(identifier.repository.getPath());
+                    if (tags == null) {
+                        tags = new ArrayList<Entry>();
+                        repositories.put(identifier.repository.getPath(), tags);
+                    }
+                    tags.add(entry);
+                }
+            }
+
+            for (Map.Entry<String, Map<String, List<Entry>>> registry : grouped.entrySet()) {
+                for (Map.Entry<String, List<Entry>> repository : registry.getValue().entrySet()) {
+                    deleteTags(registry.getKey(), repository.getKey(), repository.getValue());
+                }
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to drain registry cleanup queue", ex);
+        } finally {
+            saveIfDirty();
+            draining.set(false);
+        }
+    }
+
+    private void saveIfDirty() {
+        if (!dirty.getAndSet(false))
+            return;
+        try {
+            save();
+        } catch (IOException e) {
+            dirty.set(true);
+            LOGGER.log(Level.WARNING, "Failed to save registry cleanup queue", e);
+        }
+    }
+
+    private void deleteTags(String registry, String repository, List<Entry> tags) {
+        Iterator<Entry> it = tags.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            try {
+                Identifier identifier = Identifier.fromCompoundString(entry.taggedId);
+                getClient(registry).registryApi().deleteRepositoryTag("library",
+                        repository,
+                        identifier.tag.orNull());
+
+                LOGGER.info("Deleted " + entry.taggedId + " from registry " + registry);
+                remove(entry);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to clean up " + entry.taggedId, ex);
+
+                // The registry is probably unhealthy; back off the rest of the repository too.
+                retryLater(entry);
+                while (it.hasNext()) {
+                    retryLater(it.next());
+                }
+                clients.remove(registry);
+            }
+        }
+    }
+
+    private void retryLater(Entry entry) {
+        // Under the lock that save() holds while it writes the entries out.
+        synchronized (entries) {
+            entry.attempts++;
+            if (entry.attempts >= MAX_ATTEMPTS) {
+                LOGGER.warning("Giving up cleaning up " + entry.taggedId + " after " + entry.attempts + " attempts");
+                remove(entry);
+                return;
+            }
+            long backoff = Math.min(INITIAL_BACKOFF << (entry.attempts - 1), MAX_BACKOFF);
+            entry.notBefore = System.currentTimeMillis() + backoff;
+        }
+        dirty.set(true);
+    }
+
+    private void remove(Entry entry) {
+        synchronized (entries) {
+            entries.remove(entry);
+        }
+        dirty.set(true);
+    }
+
+    private DockerRegistryClient getClient(String registry) {
+        DockerRegistryClient client = clients.get(registry);
+        if (client == null) {
+            client = DockerRegistryClient.builder()
+                    .withUrl(registry)
+                    .build();
+            clients.put(registry, client);
+        }
+        return client;
+    }
+
+    public void save() throws IOException {
+        synchronized (entries) {
+            getConfigFile().write(this);
+        }
+    }
+
+    /**
+     * A tag waiting to be deleted.
+     */
+    public static class Entry {
+        public final String taggedId;
+        private int attempts;
+        private long notBefore;
+
+        public Entry(String taggedId) {
+            this.taggedId = taggedId;
+        }
+    }
+
+    /**
+     * Retries deletions that are backing off, and picks up anything left over from before a restart.
+     */
+    @Extension
+    public static class Drainer extends AsyncPeriodicWork {
+        public Drainer() {
+            super("Docker registry cleanup");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            DockerRegistryCleanup.get().drain();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.nirima.jenkins.plugins.docker.forecast;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.PluginImpl;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Learns when the jobs of each docker label are queued, and starts slaves a few minutes
+ * before they are expected, instead of only once jobs are already waiting.
+ *
+ * Every minute {@link Sampler} records each label's demand (busy executors plus queued jobs)
+ * in its {@link LabelDemand}, forecasts the demand {@link #LEAD} ahead, and provisions the
+ * difference between that and the executors already there or starting. The clouds' caps
+ * still apply, and {@link DockerCloud#provision} counts the slaves started here that are not
+ * nodes yet, so NodeProvisioner doesn't start them a second time.
+ *
+ * Slaves started ahead of demand cost {@link #BUDGET} container-minutes a day at most,
+ * counted for every minute one sits unused; once a build takes it, it stops counting.
+ *
+ * The history is saved to {@code $JENKINS_HOME/docker-demand-forecast.xml} as buckets close.
+ */
+public class DemandForecaster implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DemandForecaster.class.getName());
+
+    /**
+     * How far ahead (ms) to provision for.
+     */
+    private static final long LEAD = Long.getLong(DemandForecaster.class.getName() + ".lead", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * Container-minutes a day that slaves started ahead of demand may spend unused; 0 to only
+     * forecast.
+     */
+    private static final int BUDGET = Integer.getInteger(DemandForecaster.class.getName() + ".budgetMinutes", 0);
+
+    private static final long SAMPLE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    private static DemandForecaster instance;
+
+    /**
+     * label expression -> its demand history.
+     */
+    private final Map<String, LabelDemand> labels = new HashMap<String, LabelDemand>();
+
+    /**
+     * Day (since the epoch) the budget is being spent for, and how much has been spent.
+     */
+    private long budgetDay;
+    private int spentMinutes;
+
+    /**
+     * Slaves started ahead of demand that a build used, and that were removed unused.
+     */
+    private int used;
+    private int wasted;
+
+    /**
+     * Slaves started ahead of demand that no build has used yet. Guarded by itself rather
+     * than the forecaster, as provisioning looks at it.
+     */
+    private transient List<Started> started = new ArrayList<Started>();
+
+    private transient XmlFile file;
+    private transient boolean dirty;
+
+    public static synchronized DemandForecaster get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DemandForecaster load() {
+        XmlFile file = new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-demand-forecast.xml"));
+        DemandForecaster forecaster = null;
+        if (file.exists()) {
+            try {
+                forecaster = (DemandForecaster) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        if (forecaster == null)
+            forecaster = new DemandForecaster();
+        forecaster.file = file;
+        return forecaster;
+    }
+
+    private Object readResolve() {
+        started = new ArrayList<Started>();
+        return this;
+    }
+
+    /**
+     * Record each docker label's demand, check on the slaves started ahead of it, and start
+     * more where the forecast is higher than what is there.
+     */
+    void sample(long now) {
+        // Provisioning takes the clouds' locks; don't hold the forecaster's meanwhile.
+        for (Map.Entry<Label, Integer> ahead : record(now).entrySet())
+            provisionAhead(ahead.getKey(), ahead.getValue());
+    }
+
+    /**
+     * @return how many more executors than are there or starting each label is forecast to
+     * need, where the budget allows starting them.
+     */
+    private synchronized Map<Label, Integer> record(long now) {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        Map<String, Integer> queued = new HashMap<String, Integer>();
+        for (Queue.BuildableItem item : jenkins.getQueue().getBuildableItems()) {
+            Label label = item.getAssignedLabel();
+            if (label == null || !isDockerLabel(label))
+                continue;
+            Integer count = queued.get(label.getExpression());
+            queued.put(label.getExpression(), count == null ? 1 : count + 1);
+        }
+
+        long day = now / TimeUnit.DAYS.toMillis(1);
+        if (day != budgetDay) {
+            budgetDay = day;
+            spentMinutes = 0;
+        }
+        checkStarted(jenkins);
+
+        for (String expression : queued.keySet()) {
+            if (!labels.containsKey(expression))
+                labels.put(expression, new LabelDemand(expression));
+        }
+
+        Map<Label, Integer> ahead = new HashMap<Label, Integer>();
+        for (LabelDemand demand : labels.values()) {
+            Label label = jenkins.getLabel(demand.label);
+            if (label == null)
+                continue;
+            int waiting = queued.containsKey(demand.label) ? queued.get(demand.label) : 0;
+            if (demand.record(now, label.getBusyExecutors() + waiting))
+                dirty = true;
+
+            float forecast = demand.predict(now, LEAD);
+            if (Float.isNaN(forecast) || BUDGET <= 0 || spentMinutes >= BUDGET)
+                continue;
+
+            // Queued jobs are already being provisioned for.
+            int available = label.getBusyExecutors() + label.getIdleExecutors() + waiting + getStarting(label.getExpression());
+            int needed = Math.round(forecast) - available;
+            if (needed > 0) {
+                LOGGER.log(Level.FINE, "Forecast demand for " + label + " is " + forecast + " executors; " + available + " there or starting");
+                ahead.put(label, needed);
+            }
+        }
+        return ahead;
+    }
+
+    private static boolean isDockerLabel(Label label) {
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            if (cloud.getTemplate(label) != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Charge a minute of the budget for each slave started ahead of demand that no build has
+     * used yet, and stop tracking those that have been used or removed.
+     */
+    private void checkStarted(Jenkins jenkins) {
+        synchronized (started) {
+            if (started.isEmpty())
+                return;
+            dirty = true;
+            checkStarted(jenkins, started);
+        }
+    }
+
+    private void checkStarted(Jenkins jenkins, List<Started> started) {
+        for (Iterator<Started> it = started.iterator(); it.hasNext(); ) {
+            Started s = it.next();
+            if (!s.node.isDone()) {
+                spentMinutes++;
+                continue;
+            }
+
+            Node node;
+            try {
+                node = s.node.get();
+            } catch (InterruptedException e) {
+                it.remove();
+                continue;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, "Slave started ahead of demand for " + s.label + " failed", e);
+                it.remove();
+                continue;
+            }
+
+            Computer computer = jenkins.getNode(node.getNodeName()) == null ? null : node.toComputer();
+            if (computer == null) {
+                wasted++;
+                it.remove();
+            } else if (!computer.isIdle()) {
+                used++;
+                it.remove();
+            } else {
+                spentMinutes++;
+            }
+        }
+    }
+
+    private void provisionAhead(Label label, int needed) {
+        for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+            if (!cloud.canProvision(label))
+                continue;
+
+            Collection<NodeProvisioner.PlannedNode> planned = cloud.startSlaves(label, needed);
+            if (planned.isEmpty())
+                continue;
+
+            LOGGER.log(Level.INFO, "Starting " + planned.size() + " slaves on " + cloud.name + " for " + label +
+                    " ahead of demand; " + needed + " executors short of the forecast");
+            synchronized (started) {
+                for (NodeProvisioner.PlannedNode node : planned)
+                    started.add(new Started(label.getExpression(), node.future, node.numExecutors));
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return executors of slaves started ahead of demand that are not nodes yet.
+     */
+    private int getStarting(String label) {
+        int executors = 0;
+        synchronized (started) {
+            for (Started s : started) {
+                if (s.label.equals(label) && !s.node.isDone())
+                    executors += s.executors;
+            }
+        }
+        return executors;
+    }
+
+    /**
+     * @return executors of slaves started ahead of demand for the label that are not nodes
+     * yet, and which NodeProvisioner doesn't know are coming.
+     */
+    public static int getStartingAhead(Label label) {
+        return label == null ? 0 : get().getStarting(label.getExpression());
+    }
+
+    /**
+     * @return each label's history, by label.
+     */
+    public synchronized List<LabelDemand> getLabels() {
+        return new ArrayList<LabelDemand>(new TreeMap<String, LabelDemand>(labels).values());
+    }
+
+    /**
+     * @return the demand forecast for the label {@link #LEAD} from now, or NaN.
+     */
+    public synchronized float getForecast(LabelDemand demand) {
+        return demand.forecast(System.currentTimeMillis() + LEAD);
+    }
+
+    /**
+     * @return e.g. "12 used, 3 removed unused; 40 of 120 container-minutes spent today".
+     */
+    public synchronized String getSummary() {
+        if (BUDGET <= 0)
+            return "Forecasting only; set " + DemandForecaster.class.getName() + ".budgetMinutes to start slaves ahead of demand";
+        return used + " used, " + wasted + " removed unused; " + spentMinutes + " of " + BUDGET + " container-minutes spent today";
+    }
+
+    public synchronized void save() throws IOException {
+        if (file == null || !dirty)
+            return;
+        file.write(this);
+        dirty = false;
+    }
+
+    private static class Started {
+        final String label;
+        final Future<Node> node;
+        final int executors;
+
+        Started(String label, Future<Node> node, int executors) {
+            this.label = label;
+            this.node = node;
+            this.executors = executors;
+        }
+    }
+
+    /**
+     * Samples the demand every minute, off the timer thread as provisioning ahead waits on
+     * the docker hosts.
+     */
+    @Extension
+    public static class Sampler extends AsyncPeriodicWork {
+
+        public Sampler() {
+            super("Docker demand forecast");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return SAMPLE_PERIOD;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            DemandForecaster forecaster = get();
+            forecaster.sample(System.currentTimeMillis());
+            try {
+                forecaster.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to save the docker demand forecast", ex);
+            }
+        }
+    }
+}
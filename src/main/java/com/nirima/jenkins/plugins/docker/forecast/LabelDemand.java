@@ -0,0 +1,197 @@
+package com.nirima.jenkins.plugins.docker.forecast;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History of how many executors jobs with one label wanted, by time of day and of week.
+ *
+ * Demand is recorded in buckets of {@link #BUCKET} local time; when a bucket closes its peak
+ * is folded into a moving average for the same bucket of the day, and of the week. The
+ * forecast for a time is the weekly average for its bucket, or the daily one until a week
+ * has been seen. Each forecast is kept until its bucket closes, to measure how far off it was.
+ *
+ * Not thread safe: callers synchronize.
+ */
+public class LabelDemand {
+
+    static final long BUCKET = TimeUnit.MINUTES.toMillis(5);
+
+    static final int DAY_BUCKETS = (int) (TimeUnit.DAYS.toMillis(1) / BUCKET);
+    static final int WEEK_BUCKETS = 7 * DAY_BUCKETS;
+
+    /**
+     * Forecasts held for buckets not yet closed; limits how far ahead can be forecast.
+     */
+    static final int PENDING_FORECASTS = 64;
+
+    /**
+     * Weight of the newest peak in the averages.
+     */
+    private static final float ALPHA = 0.3f;
+
+    public final String label;
+
+    /**
+     * Average peak demand by bucket of the day, or NaN if that bucket has not been seen.
+     */
+    private final float[] daily = new float[DAY_BUCKETS];
+
+    /**
+     * Average peak demand by bucket of the week, or NaN if that bucket has not been seen.
+     */
+    private final float[] weekly = new float[WEEK_BUCKETS];
+
+    /**
+     * Bucket being recorded (buckets since the epoch), or -1 before the first sample.
+     */
+    private long bucket = -1;
+
+    /**
+     * Highest demand seen in that bucket so far.
+     */
+    private int peak;
+
+    /**
+     * Forecasts made for buckets, and the buckets they are for, by bucket modulo their length.
+     */
+    private final float[] forecasts = new float[PENDING_FORECASTS];
+    private final long[] forecastBuckets = new long[PENDING_FORECASTS];
+
+    private long forecastsChecked;
+    private double absoluteError;
+    private double actualTotal;
+
+    public LabelDemand(String label) {
+        this.label = label;
+        Arrays.fill(daily, Float.NaN);
+        Arrays.fill(weekly, Float.NaN);
+        Arrays.fill(forecastBuckets, -1);
+    }
+
+    static long bucketOf(long time) {
+        return (time + TimeZone.getDefault().getOffset(time)) / BUCKET;
+    }
+
+    /**
+     * Record how many executors the label's jobs wanted at the time.
+     *
+     * @return whether a bucket was closed, changing the history.
+     */
+    public boolean record(long now, int demand) {
+        long b = bucketOf(now);
+        if (b == bucket) {
+            peak = Math.max(peak, demand);
+            return false;
+        }
+
+        boolean closed = false;
+        // Buckets skipped while Jenkins was down have no peak to fold in.
+        if (bucket >= 0 && b > bucket) {
+            close(bucket, peak);
+            closed = true;
+        }
+        bucket = b;
+        peak = demand;
+        return closed;
+    }
+
+    private void close(long b, int actual) {
+        daily[(int) (b % DAY_BUCKETS)] = average(daily[(int) (b % DAY_BUCKETS)], actual);
+        weekly[(int) (b % WEEK_BUCKETS)] = average(weekly[(int) (b % WEEK_BUCKETS)], actual);
+
+        int slot = (int) (b % PENDING_FORECASTS);
+        if (forecastBuckets[slot] == b) {
+            forecastsChecked++;
+            absoluteError += Math.abs(forecasts[slot] - actual);
+            actualTotal += actual;
+            forecastBuckets[slot] = -1;
+        }
+    }
+
+    private static float average(float previous, int value) {
+        return Float.isNaN(previous) ? value : previous + ALPHA * (value - previous);
+    }
+
+    /**
+     * @return the demand expected at the time, or NaN if that time of day has not been seen.
+     */
+    public float forecast(long at) {
+        long b = bucketOf(at);
+        float value = weekly[(int) (b % WEEK_BUCKETS)];
+        if (Float.isNaN(value))
+            value = daily[(int) (b % DAY_BUCKETS)];
+        return value;
+    }
+
+    /**
+     * Forecast the demand lead ms from now, keeping the first forecast made for that bucket to
+     * check once it has closed.
+     *
+     * @return NaN if that time of day has not been seen.
+     */
+    public float predict(long now, long lead) {
+        long at = now + lead;
+        float value = forecast(at);
+        long b = bucketOf(at);
+        int slot = (int) (b % PENDING_FORECASTS);
+        if (!Float.isNaN(value) && b > bucket && forecastBuckets[slot] != b) {
+            forecasts[slot] = value;
+            forecastBuckets[slot] = b;
+        }
+        return value;
+    }
+
+    /**
+     * @return the highest demand seen in the current bucket.
+     */
+    public int getCurrent() {
+        return peak;
+    }
+
+    /**
+     * @return how many forecasts have been checked against what happened.
+     */
+    public long getForecastsChecked() {
+        return forecastsChecked;
+    }
+
+    /**
+     * @return the average number of executors the forecasts were off by, or NaN if none have been checked.
+     */
+    public double getMeanAbsoluteError() {
+        return forecastsChecked == 0 ? Double.NaN : absoluteError / forecastsChecked;
+    }
+
+    /**
+     * @return the forecasts' total error as a fraction of the total demand, or NaN if there was none.
+     */
+    public double getWeightedError() {
+        return actualTotal == 0 ? Double.NaN : absoluteError / actualTotal;
+    }
+
+    /**
+     * @return e.g. "off by 0.4 on average (12%) over 288 forecasts".
+     */
+    public String getAccuracy() {
+        if (forecastsChecked == 0)
+            return "No forecasts checked yet";
+        String accuracy = String.format("off by %.1f on average", getMeanAbsoluteError());
+        if (actualTotal > 0)
+            accuracy += String.format(" (%.0f%%)", getWeightedError() * 100);
+        return accuracy + " over " + forecastsChecked + " forecasts";
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("label", label)
+                .add("bucket", bucket)
+                .add("peak", peak)
+                .add("forecastsChecked", forecastsChecked)
+                .toString();
+    }
+}
@@ -0,0 +1,250 @@
+package com.nirima.jenkins.plugins.docker.journal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Predicate;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerSlave;
+import com.nirima.jenkins.plugins.docker.DockerTemplateBase;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Journal of what happened to each slave container, from being requested to being removed.
+ *
+ * Events go into a fixed-size ring without taking a lock, so recording one costs the
+ * provisioning and terminating threads next to nothing. {@link Flusher} appends them to
+ * JSON-lines files under {@code $JENKINS_HOME/docker-journal}, rotating them by size, and
+ * the most recent are kept in memory for the management pages.
+ */
+public class DockerLifecycleJournal {
+    private static final Logger LOGGER = Logger.getLogger(DockerLifecycleJournal.class.getName());
+
+    /**
+     * Events held in memory; rounded up to a power of two.
+     */
+    private static final int CAPACITY = Integer.getInteger(DockerLifecycleJournal.class.getName() + ".capacity", 4096);
+
+    /**
+     * Size (bytes) at which the journal file is rotated.
+     */
+    private static final long MAX_FILE_SIZE = Long.getLong(DockerLifecycleJournal.class.getName() + ".maxFileSize", 10 * 1024 * 1024);
+
+    /**
+     * Rotated files to keep.
+     */
+    private static final int MAX_FILES = Integer.getInteger(DockerLifecycleJournal.class.getName() + ".maxFiles", 5);
+
+    private static final String FILE_NAME = "journal.log";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final DockerLifecycleJournal INSTANCE = new DockerLifecycleJournal(CAPACITY);
+
+    private final AtomicReferenceArray<LifecycleEvent> ring;
+    private final int mask;
+
+    /**
+     * Sequence number of the next event.
+     */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * container id -> its last event, to time the steps. Pruned by {@link #flush} of containers
+     * whose last event has left the ring, so those that vanished without a REMOVED don't pile up.
+     */
+    private final Map<String, LifecycleEvent> lastEvents = new ConcurrentHashMap<String, LifecycleEvent>();
+
+    /**
+     * Sequence number of the next event to write to disk; only used by the flusher.
+     */
+    private long flushed;
+
+    DockerLifecycleJournal(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<LifecycleEvent>(size);
+        this.mask = size - 1;
+    }
+
+    public static DockerLifecycleJournal get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a step, timed from the container's previous event.
+     */
+    public LifecycleEvent record(LifecycleEvent.Type type, DockerCloud cloud, DockerTemplateBase template, String containerId, String detail) {
+        return record(type, cloud, template, containerId, -1, detail);
+    }
+
+    /**
+     * @param duration how long the step took (ms); -1 to time it from the container's previous event.
+     */
+    public LifecycleEvent record(LifecycleEvent.Type type, DockerCloud cloud, DockerTemplateBase template, String containerId, long duration, String detail) {
+        return record(type, cloud == null ? null : cloud.name, template == null ? null : template.image, containerId, duration, detail);
+    }
+
+    /**
+     * Record a step of a slave's container, which works even once its cloud or template is gone.
+     */
+    public LifecycleEvent record(LifecycleEvent.Type type, DockerSlave slave, String detail) {
+        return record(type, slave.getCloudName(), slave.getImage(), slave.containerId, -1, detail);
+    }
+
+    LifecycleEvent record(LifecycleEvent.Type type, String cloud, String template, String containerId, long duration, String detail) {
+        long now = System.currentTimeMillis();
+        if (containerId != null && duration < 0) {
+            LifecycleEvent previous = lastEvents.get(containerId);
+            if (previous != null)
+                duration = now - previous.timestamp;
+        }
+
+        long seq = next.getAndIncrement();
+        LifecycleEvent event = new LifecycleEvent(seq, now, type, cloud, template, containerId, duration, detail);
+        ring.set((int) (seq & mask), event);
+        if (containerId != null) {
+            if (type == LifecycleEvent.Type.REMOVED || type == LifecycleEvent.Type.FAILED)
+                lastEvents.remove(containerId);
+            else
+                lastEvents.put(containerId, event);
+        }
+        LOGGER.log(Level.FINE, "{0}", event);
+        return event;
+    }
+
+    /**
+     * @param before only events with a lower sequence number, or -1 for the newest
+     * @return up to limit matching events held in memory, newest first.
+     */
+    public List<LifecycleEvent> getEvents(long before, int limit, Predicate<LifecycleEvent> filter) {
+        List<LifecycleEvent> events = new ArrayList<LifecycleEvent>();
+        long head = next.get();
+        long from = before < 0 ? head - 1 : Math.min(before - 1, head - 1);
+        for (long seq = from; seq >= 0 && seq > head - 1 - ring.length() && events.size() < limit; seq--) {
+            LifecycleEvent event = ring.get((int) (seq & mask));
+            // Skip slots not yet written, or already reused by a newer event.
+            if (event == null || event.seq != seq)
+                continue;
+            if (filter == null || filter.apply(event))
+                events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Append the events recorded since the last flush to the journal file.
+     *
+     * @return the number of events that were overwritten before they could be written.
+     */
+    synchronized long flush(File dir) throws IOException {
+        long head = next.get();
+        if (head == flushed)
+            return 0;
+
+        prune(head);
+
+        long lost = 0;
+        if (head - flushed > ring.length()) {
+            lost = head - ring.length() - flushed;
+            flushed = head - ring.length();
+        }
+
+        File file = new File(dir, FILE_NAME);
+        if (file.length() > MAX_FILE_SIZE)
+            rotate(dir);
+        dir.mkdirs();
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            for (; flushed < head; flushed++) {
+                LifecycleEvent event = ring.get((int) (flushed & mask));
+                if (event == null || event.seq < flushed)
+                    break; // claimed but not yet written; pick it up next time
+                if (event.seq > flushed) {
+                    lost++;
+                    continue;
+                }
+                out.write(toJson(event));
+                out.write('\n');
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        if (lost > 0)
+            LOGGER.log(Level.WARNING, "Lost " + lost + " docker lifecycle events before they could be written to " + file);
+        return lost;
+    }
+
+    /**
+     * Forget the last events of containers that have had none since the oldest in the ring.
+     */
+    private void prune(long head) {
+        long oldest = head - ring.length();
+        if (oldest <= 0)
+            return;
+        for (Iterator<LifecycleEvent> it = lastEvents.values().iterator(); it.hasNext(); ) {
+            if (it.next().seq < oldest)
+                it.remove();
+        }
+    }
+
+    private static void rotate(File dir) throws IOException {
+        new File(dir, FILE_NAME + "." + MAX_FILES).delete();
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            File from = new File(dir, FILE_NAME + "." + i);
+            if (from.exists() && !from.renameTo(new File(dir, FILE_NAME + "." + (i + 1))))
+                throw new IOException("Failed to rotate " + from);
+        }
+        File current = new File(dir, FILE_NAME);
+        if (!current.renameTo(new File(dir, FILE_NAME + ".1")))
+            throw new IOException("Failed to rotate " + current);
+    }
+
+    private static String toJson(LifecycleEvent event) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonGenerator json = JSON.createGenerator(out);
+        event.writeJson(json);
+        json.close();
+        return out.toString();
+    }
+
+    /**
+     * Writes the journal to disk every few seconds.
+     */
+    @Extension
+    public static class Flusher extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 5 * 1000;
+        }
+
+        @Override
+        protected void doRun() throws Exception {
+            try {
+                get().flush(new File(Jenkins.getInstance().getRootDir(), "docker-journal"));
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to write the docker lifecycle journal", ex);
+            }
+        }
+    }
+}
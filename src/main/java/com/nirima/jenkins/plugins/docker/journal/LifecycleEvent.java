@@ -0,0 +1,102 @@
+package com.nirima.jenkins.plugins.docker.journal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Objects;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * One step in the life of a slave container.
+ */
+public class LifecycleEvent {
+
+    public enum Type {
+        REQUESTED,
+        CREATED,
+        STARTED,
+        INSPECTED,
+        ONLINE,
+        BUILD_ASSIGNED,
+        TERMINATING,
+        REMOVED,
+        FAILED
+    }
+
+    /**
+     * Position in the journal; increases by one for each event.
+     */
+    public final long seq;
+
+    public final long timestamp;
+    public final Type type;
+    public final String cloud;
+
+    /**
+     * Image of the template.
+     */
+    public final String template;
+
+    /**
+     * Null until the container has been created.
+     */
+    public final String containerId;
+
+    /**
+     * How long the step took (ms), or -1 if not known.
+     */
+    public final long duration;
+
+    /**
+     * e.g. the build assigned, or why provisioning failed; may be null.
+     */
+    public final String detail;
+
+    LifecycleEvent(long seq, long timestamp, Type type, String cloud, String template, String containerId, long duration, String detail) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.cloud = cloud;
+        this.template = template;
+        this.containerId = containerId;
+        this.duration = duration;
+        this.detail = detail;
+    }
+
+    public Date getTime() {
+        return new Date(timestamp);
+    }
+
+    /**
+     * Write the event as a JSON object, leaving out fields that are not set.
+     */
+    public void writeJson(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("seq", seq);
+        json.writeNumberField("timestamp", timestamp);
+        json.writeStringField("type", type.name());
+        json.writeStringField("cloud", cloud);
+        if (template != null)
+            json.writeStringField("template", template);
+        if (containerId != null)
+            json.writeStringField("containerId", containerId);
+        if (duration >= 0)
+            json.writeNumberField("duration", duration);
+        if (detail != null)
+            json.writeStringField("detail", detail);
+        json.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("seq", seq)
+                .add("type", type)
+                .add("cloud", cloud)
+                .add("template", template)
+                .add("containerId", containerId)
+                .add("duration", duration)
+                .add("detail", detail)
+                .toString();
+    }
+}
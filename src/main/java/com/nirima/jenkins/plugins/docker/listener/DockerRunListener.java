@@ -1,26 +1,48 @@
 package com.nirima.jenkins.plugins.docker.listener;
 
-import com.nirima.docker.client.DockerRegistryClient;
-import com.nirima.docker.client.model.Identifier;
+import com.nirima.jenkins.plugins.docker.DockerSlave;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import com.nirima.jenkins.plugins.docker.action.DockerBuildImageAction;
-import com.nirima.jenkins.plugins.docker.publisher.DockerPublisherControl;
+import com.nirima.jenkins.plugins.docker.cleanup.DockerRegistryCleanup;
+import com.nirima.jenkins.plugins.docker.journal.DockerLifecycleJournal;
+import com.nirima.jenkins.plugins.docker.journal.LifecycleEvent;
+import com.nirima.jenkins.plugins.docker.workspace.DockerWorkspaces;
 import hudson.Extension;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Node;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
 
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Listen for builds being deleted, and optionally clean up resources
- * (docker images) when this happens.
+ * (docker images) when this happens. Also notes which jobs use persistent workspaces where.
  *
  */
 @Extension
 public class DockerRunListener extends RunListener<Run<?,?>> {
     private static final Logger LOGGER = Logger.getLogger(DockerRunListener.class.getName());
 
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        Executor executor = run.getExecutor();
+        if (executor == null || !(run.getParent() instanceof Job))
+            return;
+
+        Node node = executor.getOwner().getNode();
+        if (node instanceof DockerSlave) {
+            DockerSlave slave = (DockerSlave) node;
+            DockerLifecycleJournal.get().record(LifecycleEvent.Type.BUILD_ASSIGNED, slave, run.getFullDisplayName());
+            DockerTemplate template = slave.getDockerTemplate();
+            if (template != null && template.isPersistentWorkspace())
+                DockerWorkspaces.get().recordUse(template.getDockerCloud(), template, run.getParent());
+        }
+    }
+
     @Override
     public void onDeleted(Run<?, ?> run) {
         super.onDeleted(run);
@@ -32,28 +54,8 @@ public class DockerRunListener extends RunListener<Run<?,?>> {
 
 
                 if( action.pushOnSuccess ) {
-
-                    DockerRegistryClient registryClient;
-
-                    try {
-
-                        Identifier identifier = Identifier.fromCompoundString(action.taggedId);
-
-                        registryClient = DockerRegistryClient.builder()
-                                .withUrl(identifier.repository.getURL())
-                                .build();
-
-                        registryClient.registryApi().deleteRepositoryTag("library",
-                                identifier.repository.getPath(),
-                                identifier.tag.orNull());
-
-
-
-                    } catch (Exception ex) {
-
-                        LOGGER.log(Level.WARNING, "Failed to clean up", ex);
-                    }
-
+                    // Registry round trips happen in the background, so run deletion isn't held up.
+                    DockerRegistryCleanup.get().enqueue(action.taggedId);
                 }
             }
         }
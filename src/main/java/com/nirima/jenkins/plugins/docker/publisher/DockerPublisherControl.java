@@ -42,7 +42,7 @@ public class    DockerPublisherControl extends Recorder implements Serializable
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 
         try {
-            new DockerBuilderControlOptionStopAll(remove).execute(build);
+            new DockerBuilderControlOptionStopAll(remove).execute(build, listener);
         } catch (DockerException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,149 @@
+package com.nirima.jenkins.plugins.docker.stats;
+
+import com.nirima.jenkins.plugins.docker.utils.LongRingBuffer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Recent resource usage of one container, kept in fixed-size rings so memory stays bounded
+ * however long the container runs.
+ */
+public class ContainerStats {
+
+    /**
+     * Number of samples kept per metric.
+     */
+    static final int HISTORY = 60;
+
+    public final String containerId;
+
+    /**
+     * CPU use, in hundredths of a percent of one core.
+     */
+    private final LongRingBuffer cpu = new LongRingBuffer(HISTORY);
+    private final LongRingBuffer memory = new LongRingBuffer(HISTORY);
+
+    /**
+     * Network and block I/O, in bytes per second.
+     */
+    private final LongRingBuffer network = new LongRingBuffer(HISTORY);
+    private final LongRingBuffer blockIo = new LongRingBuffer(HISTORY);
+
+    private long memoryLimit;
+
+    // Cumulative counters from the previous sample, to turn into rates.
+    private long lastSampleTime;
+    private long lastCpuTotal;
+    private long lastSystemCpu;
+    private long lastNetwork;
+    private long lastBlockIo;
+
+    public ContainerStats(String containerId) {
+        this.containerId = containerId;
+    }
+
+    /**
+     * Record one sample from the docker stats API.
+     */
+    public synchronized void record(JSONObject sample, long now) {
+        JSONObject cpuStats = sample.optJSONObject("cpu_stats");
+        long cpuTotal = 0;
+        long systemCpu = 0;
+        int cpus = 1;
+        if (cpuStats != null) {
+            JSONObject usage = cpuStats.optJSONObject("cpu_usage");
+            if (usage != null) {
+                cpuTotal = usage.optLong("total_usage");
+                JSONArray perCpu = usage.optJSONArray("percpu_usage");
+                if (perCpu != null && perCpu.size() > 0)
+                    cpus = perCpu.size();
+            }
+            systemCpu = cpuStats.optLong("system_cpu_usage");
+        }
+
+        JSONObject memoryStats = sample.optJSONObject("memory_stats");
+        long memoryUsage = memoryStats == null ? 0 : memoryStats.optLong("usage");
+        if (memoryStats != null)
+            memoryLimit = memoryStats.optLong("limit");
+
+        JSONObject net = sample.optJSONObject("network");
+        long networkTotal = net == null ? 0 : net.optLong("rx_bytes") + net.optLong("tx_bytes");
+
+        long blockTotal = 0;
+        JSONObject blkio = sample.optJSONObject("blkio_stats");
+        JSONArray serviced = blkio == null ? null : blkio.optJSONArray("io_service_bytes_recursive");
+        if (serviced != null) {
+            for (int i = 0; i < serviced.size(); i++) {
+                JSONObject entry = serviced.getJSONObject(i);
+                String op = entry.optString("op");
+                if ("Read".equals(op) || "Write".equals(op))
+                    blockTotal += entry.optLong("value");
+            }
+        }
+
+        if (lastSampleTime != 0) {
+            long systemDelta = systemCpu - lastSystemCpu;
+            long cpuDelta = cpuTotal - lastCpuTotal;
+            cpu.add(systemDelta > 0 ? cpuDelta * cpus * 10000 / systemDelta : 0);
+
+            long seconds = Math.max(1, (now - lastSampleTime) / 1000);
+            network.add(Math.max(0, networkTotal - lastNetwork) / seconds);
+            blockIo.add(Math.max(0, blockTotal - lastBlockIo) / seconds);
+            memory.add(memoryUsage);
+        }
+
+        lastSampleTime = now;
+        lastCpuTotal = cpuTotal;
+        lastSystemCpu = systemCpu;
+        lastNetwork = networkTotal;
+        lastBlockIo = blockTotal;
+    }
+
+    public synchronized long getLastSampleTime() {
+        return lastSampleTime;
+    }
+
+    public synchronized String getSummary() {
+        if (cpu.size() == 0)
+            return "Collecting...";
+
+        return String.format("CPU %.1f%%, Mem %dMB%s, Net %dKB/s, Disk %dKB/s",
+                cpu.last() / 100.0,
+                memory.last() / (1024 * 1024),
+                memoryLimit > 0 ? " of " + memoryLimit / (1024 * 1024) + "MB" : "",
+                network.last() / 1024,
+                blockIo.last() / 1024);
+    }
+
+    public synchronized String getCpuSparkline() {
+        return sparkline(cpu);
+    }
+
+    public synchronized String getMemorySparkline() {
+        return sparkline(memory);
+    }
+
+    public synchronized String getNetworkSparkline() {
+        return sparkline(network);
+    }
+
+    public synchronized String getBlockIoSparkline() {
+        return sparkline(blockIo);
+    }
+
+    /**
+     * Points for an SVG polyline of {@link #HISTORY} x 20, scaled to the largest value held.
+     */
+    static String sparkline(LongRingBuffer values) {
+        StringBuilder points = new StringBuilder();
+        long max = Math.max(1, values.max());
+        int offset = HISTORY - values.size();
+        for (int i = 0; i < values.size(); i++) {
+            long y = 20 - (values.get(i) * 20 / max);
+            if (points.length() > 0)
+                points.append(' ');
+            points.append(offset + i).append(',').append(y);
+        }
+        return points.toString();
+    }
+}
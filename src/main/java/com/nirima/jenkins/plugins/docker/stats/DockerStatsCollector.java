@@ -0,0 +1,246 @@
+package com.nirima.jenkins.plugins.docker.stats;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerSlave;
+import com.nirima.jenkins.plugins.docker.PluginImpl;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples resource usage of the containers running our slaves on one docker host.
+ *
+ * Each host has a single collector thread. The stats API streams one sample a second per
+ * container, so the thread keeps each container's stream open for as long as the container
+ * runs, and every {@link #INTERVAL} records the latest sample that has arrived on each,
+ * rather than connecting again for every sample. The streams are opened with the host's
+ * client certificates when it is reached over TLS.
+ */
+public class DockerStatsCollector implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(DockerStatsCollector.class.getName());
+
+    /**
+     * Time between rounds of samples (ms).
+     */
+    private static final long INTERVAL = Long.getLong(DockerStatsCollector.class.getName() + ".interval", 10 * 1000);
+
+    /**
+     * How long a stream may go quiet in the middle of a sample before it is dropped (ms).
+     */
+    private static final int READ_TIMEOUT = 30 * 1000;
+
+    private static final Map<String, DockerStatsCollector> COLLECTORS = new ConcurrentHashMap<String, DockerStatsCollector>();
+
+    private final String cloudName;
+    private final Map<String, ContainerStats> stats = new ConcurrentHashMap<String, ContainerStats>();
+    private volatile Thread thread;
+
+    /**
+     * container id -> its open stats stream; only used by the collector thread.
+     */
+    private final Map<String, StatsStream> streams = new HashMap<String, StatsStream>();
+
+    private DockerStatsCollector(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    /**
+     * @return the stats collected for the container, or null if we don't have any.
+     */
+    public static ContainerStats getStats(DockerCloud cloud, String containerId) {
+        DockerStatsCollector collector = COLLECTORS.get(cloud.name);
+        return collector == null ? null : collector.stats.get(containerId);
+    }
+
+    private synchronized void start() {
+        thread = new Thread(this, "Docker stats collector for " + cloudName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run() {
+        try {
+            while (thread == Thread.currentThread()) {
+                try {
+                    collect();
+                    Thread.sleep(INTERVAL);
+                } catch (InterruptedException ex) {
+                    return;
+                } catch (Exception ex) {
+                    LOGGER.log(Level.FINE, "Failed to collect stats for " + cloudName, ex);
+                }
+            }
+        } finally {
+            for (StatsStream stream : streams.values())
+                stream.close();
+            streams.clear();
+        }
+    }
+
+    private void collect() throws InterruptedException {
+        DockerCloud cloud = (DockerCloud) Jenkins.getInstance().getCloud(cloudName);
+        if (cloud == null)
+            return;
+
+        Set<String> running = getSlaveContainers(cloud);
+        stats.keySet().retainAll(running);
+        for (Iterator<Map.Entry<String, StatsStream>> it = streams.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, StatsStream> entry = it.next();
+            if (!running.contains(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+
+        for (String containerId : running) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            ContainerStats containerStats = stats.get(containerId);
+            if (containerStats == null) {
+                containerStats = new ContainerStats(containerId);
+                stats.put(containerId, containerStats);
+            }
+
+            StatsStream stream = streams.get(containerId);
+            try {
+                if (stream == null) {
+                    stream = new StatsStream(cloud, containerId);
+                    streams.put(containerId, stream);
+                }
+                JSONObject sample = stream.latest();
+                if (sample != null)
+                    containerStats.record(sample, System.currentTimeMillis());
+            } catch (IOException ex) {
+                // Opened again next round.
+                LOGGER.log(Level.FINE, "Failed to read the stats of " + containerId, ex);
+                if (stream != null)
+                    stream.close();
+                streams.remove(containerId);
+            }
+        }
+    }
+
+    private static Set<String> getSlaveContainers(DockerCloud cloud) {
+        Set<String> containers = new HashSet<String>();
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof DockerSlave))
+                continue;
+            DockerSlave slave = (DockerSlave) node;
+            try {
+                if (slave.getDockerCloud() == cloud)
+                    containers.add(slave.containerId);
+            } catch (RuntimeException ex) {
+                // slave has lost its cloud; nothing to collect
+            }
+        }
+        return containers;
+    }
+
+    /**
+     * A container's stats stream, left open between rounds.
+     */
+    private static class StatsStream {
+        private final HttpURLConnection connection;
+        private final BufferedReader reader;
+
+        StatsStream(DockerCloud cloud, String containerId) throws IOException {
+            URL url = new URL(cloud.serverUrl.replaceAll("/$", "") + "/containers/" + containerId + "/stats");
+            connection = (HttpURLConnection) url.openConnection();
+            if (connection instanceof HttpsURLConnection) {
+                SSLSocketFactory factory = cloud.getSslSocketFactory();
+                if (factory != null)
+                    ((HttpsURLConnection) connection).setSSLSocketFactory(factory);
+            }
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(READ_TIMEOUT);
+            Tracing.inject(connection);
+            try {
+                reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            } catch (IOException ex) {
+                connection.disconnect();
+                throw ex;
+            }
+        }
+
+        /**
+         * @return the newest sample that has arrived since the last call, or null if none has.
+         */
+        JSONObject latest() throws IOException {
+            String last = null;
+            // Docker writes each sample as one line; don't wait for the next one.
+            while (reader.ready()) {
+                String line = reader.readLine();
+                if (line == null)
+                    throw new IOException("Stats stream ended");
+                if (line.length() > 0)
+                    last = line;
+            }
+            return last == null ? null : JSONObject.fromObject(last);
+        }
+
+        void close() {
+            IOUtils.closeQuietly(reader);
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Keeps one collector running for each docker cloud.
+     */
+    @Extension
+    public static class Manager extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() throws Exception {
+            Set<String> names = new HashSet<String>();
+            for (DockerCloud cloud : PluginImpl.getInstance().getServers()) {
+                names.add(cloud.name);
+                if (!COLLECTORS.containsKey(cloud.name)) {
+                    DockerStatsCollector collector = new DockerStatsCollector(cloud.name);
+                    COLLECTORS.put(cloud.name, collector);
+                    collector.start();
+                }
+            }
+
+            for (Map.Entry<String, DockerStatsCollector> entry : COLLECTORS.entrySet()) {
+                if (!names.contains(entry.getKey())) {
+                    entry.getValue().stop();
+                    COLLECTORS.remove(entry.getKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.Extension;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Appends spans as JSON lines to {@code $JENKINS_HOME/docker-traces/spans.log}.
+ *
+ * Off unless the {@code com.nirima.jenkins.plugins.docker.tracing.FileSpanSink.enabled}
+ * system property is set.
+ */
+@Extension
+public class FileSpanSink extends SpanSink {
+
+    private static final boolean ENABLED = Boolean.getBoolean(FileSpanSink.class.getName() + ".enabled");
+
+    /**
+     * Size (bytes) at which the file is rolled over to {@code spans.log.1}.
+     */
+    private static final long MAX_FILE_SIZE = Long.getLong(FileSpanSink.class.getName() + ".maxFileSize", 10 * 1024 * 1024);
+
+    private static final String FILE_NAME = "spans.log";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final File dir;
+
+    public FileSpanSink() {
+        this(null);
+    }
+
+    /**
+     * @param dir where to write, or null for {@code $JENKINS_HOME/docker-traces}
+     */
+    FileSpanSink(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED || dir != null;
+    }
+
+    @Override
+    public synchronized void export(List<Span> spans) throws IOException {
+        File dir = this.dir != null ? this.dir : new File(Jenkins.getInstance().getRootDir(), "docker-traces");
+        dir.mkdirs();
+
+        File file = new File(dir, FILE_NAME);
+        if (file.length() > MAX_FILE_SIZE) {
+            File previous = new File(dir, FILE_NAME + ".1");
+            previous.delete();
+            if (!file.renameTo(previous))
+                throw new IOException("Failed to roll over " + file);
+        }
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            for (Span span : spans) {
+                JsonGenerator json = JSON.createGenerator(out);
+                span.writeJson(json);
+                json.flush();
+                out.write('\n');
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
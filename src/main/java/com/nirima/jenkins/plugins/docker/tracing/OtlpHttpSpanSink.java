@@ -0,0 +1,144 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.Extension;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posts spans to an OpenTelemetry collector, using OTLP over HTTP with the JSON encoding.
+ *
+ * Off unless the {@code com.nirima.jenkins.plugins.docker.tracing.OtlpHttpSpanSink.endpoint}
+ * system property gives the collector's base URL, e.g. {@code http://localhost:4318}.
+ */
+@Extension
+public class OtlpHttpSpanSink extends SpanSink {
+
+    static final String SERVICE_NAME = "jenkins-docker-plugin";
+
+    private static final int STATUS_ERROR = 2;
+    private static final int KIND_INTERNAL = 1;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String endpoint;
+
+    public OtlpHttpSpanSink() {
+        this(System.getProperty(OtlpHttpSpanSink.class.getName() + ".endpoint"));
+    }
+
+    OtlpHttpSpanSink(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return endpoint != null && endpoint.length() > 0;
+    }
+
+    @Override
+    public void export(List<Span> spans) throws IOException {
+        byte[] body = toJson(spans).getBytes("UTF-8");
+
+        URL url = new URL(endpoint.replaceAll("/$", "") + "/v1/traces");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        try {
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            int status = connection.getResponseCode();
+            if (status / 100 != 2)
+                throw new IOException("Collector at " + url + " rejected " + spans.size() + " spans: HTTP " + status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static String toJson(List<Span> spans) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonGenerator json = JSON.createGenerator(out);
+        json.writeStartObject();
+        json.writeArrayFieldStart("resourceSpans");
+        json.writeStartObject();
+
+        json.writeObjectFieldStart("resource");
+        json.writeArrayFieldStart("attributes");
+        writeAttribute(json, "service.name", SERVICE_NAME);
+        json.writeEndArray();
+        json.writeEndObject();
+
+        json.writeArrayFieldStart("scopeSpans");
+        json.writeStartObject();
+        json.writeObjectFieldStart("scope");
+        json.writeStringField("name", Tracing.class.getPackage().getName());
+        json.writeEndObject();
+        json.writeArrayFieldStart("spans");
+        for (Span span : spans)
+            writeSpan(json, span);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+        json.close();
+        return out.toString();
+    }
+
+    private static void writeSpan(JsonGenerator json, Span span) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("traceId", span.traceId);
+        json.writeStringField("spanId", span.spanId);
+        if (span.parentId != null)
+            json.writeStringField("parentSpanId", span.parentId);
+        json.writeStringField("name", span.name);
+        json.writeNumberField("kind", KIND_INTERNAL);
+        // 64 bit integers are strings in the JSON encoding.
+        json.writeStringField("startTimeUnixNano", String.valueOf(span.startMillis * 1000000L));
+        json.writeStringField("endTimeUnixNano", String.valueOf(span.getEndMillis() * 1000000L));
+
+        json.writeArrayFieldStart("attributes");
+        for (Map.Entry<String, String> attribute : span.getAttributes().entrySet())
+            writeAttribute(json, attribute.getKey(), attribute.getValue());
+        json.writeEndArray();
+
+        if (span.getError() != null) {
+            json.writeObjectFieldStart("status");
+            json.writeNumberField("code", STATUS_ERROR);
+            json.writeStringField("message", span.getError());
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeAttribute(JsonGenerator json, String key, String value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("key", key);
+        json.writeObjectFieldStart("value");
+        json.writeStringField("stringValue", value);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+        return "OTLP collector at " + endpoint;
+    }
+}
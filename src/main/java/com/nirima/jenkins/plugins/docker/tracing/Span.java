@@ -0,0 +1,136 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Objects;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed phase of provisioning or of a build step, part of a trace.
+ *
+ * Started with {@link Tracing#start}, and must be ended with {@link #end()}, normally in a
+ * finally block.
+ */
+public class Span {
+    public final String traceId;
+    public final String spanId;
+
+    /**
+     * Null for the root of a trace.
+     */
+    public final String parentId;
+
+    public final String name;
+    public final long startMillis;
+
+    private volatile long endMillis;
+    private volatile String error;
+    private final Map<String, String> attributes = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    /**
+     * The span that was current on the thread before this one, to restore when it ends.
+     */
+    private final transient Span previous;
+
+    Span(String traceId, String spanId, String parentId, String name, long startMillis, Span previous) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.name = name;
+        this.startMillis = startMillis;
+        this.previous = previous;
+    }
+
+    public Span setAttribute(String key, Object value) {
+        if (value != null)
+            attributes.put(key, String.valueOf(value));
+        return this;
+    }
+
+    public Span setError(Throwable t) {
+        this.error = String.valueOf(t);
+        return this;
+    }
+
+    public void end() {
+        end(System.currentTimeMillis());
+    }
+
+    void end(long when) {
+        if (endMillis != 0)
+            return;
+        endMillis = when;
+        Tracing.ended(this, previous);
+    }
+
+    public boolean isEnded() {
+        return endMillis != 0;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public long getDuration() {
+        return endMillis == 0 ? -1 : endMillis - startMillis;
+    }
+
+    /**
+     * @return why the phase failed, or null if it didn't.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public Map<String, String> getAttributes() {
+        synchronized (attributes) {
+            return new LinkedHashMap<String, String>(attributes);
+        }
+    }
+
+    /**
+     * W3C trace context header identifying this span, so that calls it makes can be tied to it.
+     */
+    public String getTraceParent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    /**
+     * Write the span as a JSON object, leaving out fields that are not set.
+     */
+    public void writeJson(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("traceId", traceId);
+        json.writeStringField("spanId", spanId);
+        if (parentId != null)
+            json.writeStringField("parentId", parentId);
+        json.writeStringField("name", name);
+        json.writeNumberField("start", startMillis);
+        json.writeNumberField("duration", getDuration());
+        if (error != null)
+            json.writeStringField("error", error);
+        Map<String, String> attributes = getAttributes();
+        if (!attributes.isEmpty()) {
+            json.writeObjectFieldStart("attributes");
+            for (Map.Entry<String, String> attribute : attributes.entrySet())
+                json.writeStringField(attribute.getKey(), attribute.getValue());
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("name", name)
+                .add("traceId", traceId)
+                .add("spanId", spanId)
+                .add("parentId", parentId)
+                .add("duration", getDuration())
+                .add("error", error)
+                .toString();
+    }
+}
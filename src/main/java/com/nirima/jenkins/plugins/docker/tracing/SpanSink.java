@@ -0,0 +1,30 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where ended spans are sent.
+ *
+ * Spans are only kept at all while some sink is enabled.
+ */
+public abstract class SpanSink implements ExtensionPoint {
+
+    public abstract boolean isEnabled();
+
+    /**
+     * Called from a background thread with the spans ended since the last call.
+     */
+    public abstract void export(List<Span> spans) throws IOException;
+
+    public static List<SpanSink> all() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null)
+            return Collections.emptyList();
+        return jenkins.getExtensionList(SpanSink.class);
+    }
+}
@@ -0,0 +1,188 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts spans, keeps track of the current one on each thread, and hands ended ones to the
+ * enabled {@link SpanSink}s in the background.
+ *
+ * Work handed to another thread carries its span along explicitly, with
+ * {@link #start(String, Span)}.
+ */
+public class Tracing {
+    private static final Logger LOGGER = Logger.getLogger(Tracing.class.getName());
+
+    /**
+     * Header carrying the trace context to the docker daemon.
+     */
+    public static final String TRACE_PARENT = "traceparent";
+
+    /**
+     * Ended spans waiting to be exported, beyond which new ones are dropped.
+     */
+    private static final int MAX_QUEUED = Integer.getInteger(Tracing.class.getName() + ".maxQueued", 10000);
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+    private static final Random RANDOM = new Random();
+
+    private static final Queue<Span> QUEUE = new ConcurrentLinkedQueue<Span>();
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private Tracing() {
+    }
+
+    /**
+     * Start a span as a child of the thread's current one, or as a new trace if there isn't
+     * one, and make it current.
+     */
+    public static Span start(String name) {
+        return start(name, CURRENT.get());
+    }
+
+    /**
+     * Start a span as a child of the given one, and make it current.
+     *
+     * @param parent null to start a new trace
+     */
+    public static Span start(String name, Span parent) {
+        Span span = new Span(parent == null ? newId(16) : parent.traceId, newId(8), parent == null ? null : parent.spanId,
+                name, System.currentTimeMillis(), CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Record a phase that has already happened, as a child of the current span.
+     *
+     * @return null if there is no current span to attach it to.
+     */
+    public static Span record(String name, long startMillis, long duration) {
+        Span parent = CURRENT.get();
+        if (parent == null)
+            return null;
+        Span span = new Span(parent.traceId, newId(8), parent.spanId, name, startMillis, null);
+        span.end(startMillis + duration);
+        return span;
+    }
+
+    /**
+     * @return the span current on this thread, or null.
+     */
+    public static Span current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the {@link #TRACE_PARENT} header for the current span, or null if there isn't one.
+     */
+    public static String getTraceParent() {
+        Span span = CURRENT.get();
+        return span == null ? null : span.getTraceParent();
+    }
+
+    /**
+     * Tie an HTTP call to the current span.
+     */
+    public static void inject(HttpURLConnection connection) {
+        String traceParent = getTraceParent();
+        if (traceParent != null)
+            connection.setRequestProperty(TRACE_PARENT, traceParent);
+    }
+
+    static void ended(Span span, Span previous) {
+        if (CURRENT.get() == span)
+            CURRENT.set(previous);
+
+        if (!isEnabled())
+            return;
+        if (QUEUED.incrementAndGet() > MAX_QUEUED) {
+            QUEUED.decrementAndGet();
+            DROPPED.incrementAndGet();
+            return;
+        }
+        QUEUE.add(span);
+    }
+
+    private static boolean isEnabled() {
+        for (SpanSink sink : SpanSink.all()) {
+            if (sink.isEnabled())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the spans ended since the last call.
+     */
+    static List<Span> drain() {
+        List<Span> spans = new ArrayList<Span>();
+        Span span;
+        while ((span = QUEUE.poll()) != null) {
+            QUEUED.decrementAndGet();
+            spans.add(span);
+        }
+        return spans;
+    }
+
+    private static String newId(int bytes) {
+        byte[] id = new byte[bytes];
+        RANDOM.nextBytes(id);
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (byte b : id)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Hands ended spans to the sinks every few seconds, off the shared timer thread as the
+     * sinks may wait on a collector.
+     */
+    @Extension
+    public static class Exporter extends AsyncPeriodicWork {
+
+        public Exporter() {
+            super("Docker trace export");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return 5 * 1000;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0)
+                LOGGER.log(Level.WARNING, "Dropped " + dropped + " trace spans; the sinks are not keeping up");
+
+            List<Span> spans = drain();
+            if (spans.isEmpty())
+                return;
+
+            for (SpanSink sink : SpanSink.all()) {
+                if (!sink.isEnabled())
+                    continue;
+                try {
+                    sink.export(spans);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "Failed to export " + spans.size() + " spans to " + sink, ex);
+                }
+            }
+        }
+    }
+}
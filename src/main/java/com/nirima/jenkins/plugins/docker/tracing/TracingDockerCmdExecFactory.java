@@ -0,0 +1,29 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import com.github.dockerjava.jaxrs.DockerCmdExecFactoryImpl;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.WebTarget;
+
+/**
+ * Has docker-java send the current span's {@code traceparent} with each docker API call.
+ *
+ * Commands are executed on the calling thread, so the span current there is the one the
+ * call belongs to.
+ */
+public class TracingDockerCmdExecFactory extends DockerCmdExecFactoryImpl {
+
+    @Override
+    protected WebTarget getBaseResource() {
+        return super.getBaseResource().register(TraceParentFilter.class);
+    }
+
+    public static class TraceParentFilter implements ClientRequestFilter {
+        public void filter(ClientRequestContext request) {
+            String traceParent = Tracing.getTraceParent();
+            if (traceParent != null)
+                request.getHeaders().putSingle(Tracing.TRACE_PARENT, traceParent);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.nirima.jenkins.plugins.docker.utils;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import com.github.dockerjava.api.model.Bind;
+import com.github.dockerjava.api.model.Volume;
+import com.google.common.base.Throwables;
+import hudson.model.Computer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a short-lived container on a docker host to do housekeeping on its filesystem,
+ * e.g. removing a directory that only the host can see.
+ *
+ * A helper that hangs, e.g. on a stuck filesystem, is killed after a timeout rather than
+ * holding the thread that waits for it.
+ */
+public class HelperContainer {
+    private static final Logger LOGGER = Logger.getLogger(HelperContainer.class.getName());
+
+    /**
+     * Minutes a helper may run, unless its caller gives another timeout.
+     */
+    private static final long TIMEOUT_MINUTES = Long.getLong(HelperContainer.class.getName() + ".timeoutMinutes", 10);
+
+    /**
+     * Status of a helper killed for running past its timeout.
+     */
+    public static final int KILLED = -1;
+
+    public final int status;
+
+    /**
+     * What the command wrote to stdout.
+     */
+    public final String output;
+
+    private HelperContainer(int status, String output) {
+        this.status = status;
+        this.output = output;
+    }
+
+    /**
+     * Run the command to completion, or kill it after the default timeout, then remove the container.
+     *
+     * @param binds host path -> path in the container
+     * @return the exit code of the command, or {@link #KILLED}
+     */
+    public static int run(DockerClient client, String image, Map<String, String> binds, String... cmd) {
+        return execute(client, image, binds, null, cmd).status;
+    }
+
+    /**
+     * Run the command to completion, or kill it after the default timeout, then remove the container.
+     *
+     * @param binds host path -> path in the container
+     * @param volumesFrom container whose volumes to mount too, or null
+     */
+    public static HelperContainer execute(DockerClient client, String image, Map<String, String> binds, String volumesFrom, String... cmd) {
+        return execute(client, image, binds, volumesFrom, TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES), cmd);
+    }
+
+    /**
+     * Run the command until it completes or the timeout passes, when the container is killed;
+     * then remove the container.
+     *
+     * @param binds host path -> path in the container
+     * @param volumesFrom container whose volumes to mount too, or null
+     * @param timeoutMillis how long to wait for the command, or 0 to wait as long as it takes
+     * @return status {@link #KILLED} if it timed out
+     */
+    public static HelperContainer execute(DockerClient client, String image, Map<String, String> binds, String volumesFrom, long timeoutMillis, String... cmd) {
+        List<Bind> list = new ArrayList<Bind>();
+        for (Map.Entry<String, String> bind : binds.entrySet()) {
+            list.add(new Bind(bind.getKey(), new Volume(bind.getValue())));
+        }
+
+        String id = client.createContainerCmd(image)
+                .withCmd(cmd)
+                .exec()
+                .getId();
+        try {
+            StartContainerCmd start = client.startContainerCmd(id)
+                    .withBinds(list.toArray(new Bind[list.size()]));
+            if (volumesFrom != null)
+                start.withVolumesFrom(volumesFrom);
+            start.exec();
+
+            int status = waitFor(client, id, timeoutMillis);
+            return new HelperContainer(status, status == KILLED ? "" : readStdout(client, id));
+        } finally {
+            try {
+                client.removeContainerCmd(id).exec();
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to remove helper container " + id, ex);
+            }
+        }
+    }
+
+    private static int waitFor(final DockerClient client, final String id, long timeoutMillis) {
+        if (timeoutMillis <= 0)
+            return client.waitContainerCmd(id).exec();
+
+        Future<Integer> waiting = Computer.threadPoolForRemoting.submit(new Callable<Integer>() {
+            public Integer call() {
+                return client.waitContainerCmd(id).exec();
+            }
+        });
+        try {
+            return waiting.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        } catch (TimeoutException ex) {
+            LOGGER.log(Level.WARNING, "Helper container " + id + " did not finish within " + timeoutMillis + "ms, killing it");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        waiting.cancel(true);
+        try {
+            client.killContainerCmd(id).exec();
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to kill helper container " + id, ex);
+        }
+        return KILLED;
+    }
+
+    /**
+     * The log of a container without a tty is multiplexed: each frame is an 8 byte
+     * header, giving the stream and the length, followed by the payload.
+     */
+    private static String readStdout(DockerClient client, String id) {
+        InputStream in = null;
+        try {
+            in = client.logContainerCmd(id).withStdOut().exec();
+            DataInputStream data = new DataInputStream(in);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] header = new byte[8];
+            while (true) {
+                try {
+                    data.readFully(header);
+                } catch (EOFException ex) {
+                    break;
+                }
+                int size = ((header[4] & 0xff) << 24) | ((header[5] & 0xff) << 16) | ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+                byte[] payload = new byte[size];
+                data.readFully(payload);
+                if (header[0] == 1)
+                    out.write(payload);
+            }
+            return out.toString("UTF-8");
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to read the output of helper container " + id, ex);
+            return "";
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.nirima.jenkins.plugins.docker.utils;
+
+/**
+ * Fixed-size ring of primitive longs; once full, each add overwrites the oldest value.
+ *
+ * Not thread safe: callers synchronize.
+ */
+public class LongRingBuffer {
+    private final long[] values;
+
+    /**
+     * Index the next value will be written to.
+     */
+    private int head;
+    private int size;
+
+    public LongRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.values = new long[capacity];
+    }
+
+    public void add(long value) {
+        values[head] = value;
+        head = (head + 1) % values.length;
+        if (size < values.length)
+            size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * @param i 0 for the oldest value held, size()-1 for the newest.
+     */
+    public long get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(i + " of " + size);
+        return values[(head - size + i + values.length) % values.length];
+    }
+
+    public long last() {
+        return get(size - 1);
+    }
+
+    public long max() {
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, get(i));
+        }
+        return max;
+    }
+
+    /**
+     * Values from oldest to newest.
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+}
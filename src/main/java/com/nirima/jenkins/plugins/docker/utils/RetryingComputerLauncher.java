@@ -1,6 +1,8 @@
 package com.nirima.jenkins.plugins.docker.utils;
 
 import com.nirima.docker.client.DockerException;
+import com.nirima.jenkins.plugins.docker.tracing.Span;
+import com.nirima.jenkins.plugins.docker.tracing.Tracing;
 import hudson.model.TaskListener;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.DelegatingComputerLauncher;
@@ -35,7 +37,15 @@ public class RetryingComputerLauncher extends DelegatingComputerLauncher {
             log.info("Launch failed, pausing before retry.");
             Thread.sleep(pause);
         }
-        super.launch(computer, listener);
+        Span span = Tracing.start("ssh.connect").setAttribute("retry", hasTried);
+        try {
+            super.launch(computer, listener);
+        } catch (IOException ex) {
+            span.setError(ex);
+            throw ex;
+        } finally {
+            span.end();
+        }
         hasTried = true;
     }
 }
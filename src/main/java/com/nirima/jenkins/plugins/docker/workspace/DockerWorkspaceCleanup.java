@@ -0,0 +1,68 @@
+package com.nirima.jenkins.plugins.docker.workspace;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.utils.HelperContainer;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes persistent workspaces that no build has used for a while.
+ *
+ * The directories live on the docker hosts, so each is removed by a helper container
+ * of the image that used it, with the workspace directory mounted.
+ */
+@Extension
+public class DockerWorkspaceCleanup extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(DockerWorkspaceCleanup.class.getName());
+
+    /**
+     * Days a workspace may go unused before it is removed.
+     */
+    private static final int TTL_DAYS = Integer.getInteger(DockerWorkspaceCleanup.class.getName() + ".ttlDays", 7);
+
+    public DockerWorkspaceCleanup() {
+        super("Docker workspace cleanup");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(TTL_DAYS);
+
+        for (DockerWorkspaces.Workspace workspace : DockerWorkspaces.get().getIdleSince(cutoff)) {
+            Cloud cloud = Jenkins.getInstance().getCloud(workspace.cloud);
+            if (!(cloud instanceof DockerCloud)) {
+                // The host is gone, and its directories with it as far as we are concerned.
+                DockerWorkspaces.get().remove(workspace);
+                continue;
+            }
+
+            try {
+                int status = HelperContainer.run(((DockerCloud) cloud).getDockerClient(), workspace.image,
+                        Collections.singletonMap(workspace.hostDir, "/workspace"),
+                        "rm", "-rf", "/workspace/" + workspace.job);
+                if (status == 0) {
+                    listener.getLogger().println("Removed workspace of " + workspace.job + " on " + workspace.cloud);
+                    DockerWorkspaces.get().remove(workspace);
+                } else {
+                    LOGGER.log(Level.WARNING, "Removing workspace of " + workspace.job + " on " + workspace.cloud + " exited with " + status);
+                }
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to remove workspace of " + workspace.job + " on " + workspace.cloud, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.nirima.jenkins.plugins.docker.workspace;
+
+import com.google.common.base.Objects;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerSlave;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import com.nirima.jenkins.plugins.docker.Messages;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps jobs with persistent workspaces consistent and close to their workspace.
+ *
+ * A job may not build on two slaves sharing the same workspace directory at once, and
+ * for a short while after it is queued it waits for the host that already has its workspace.
+ */
+@Extension
+public class DockerWorkspaceDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+        if (!(node instanceof DockerSlave) || !(item.task instanceof Job))
+            return null;
+
+        DockerSlave slave = (DockerSlave) node;
+        DockerTemplate template = slave.getDockerTemplate();
+        if (template == null || !template.isPersistentWorkspace())
+            return null;
+
+        DockerCloud cloud = slave.getDockerCloud();
+        if (isBuildingOn(cloud, template.workspaceHostDir, item.task)) {
+            return CauseOfBlockage.fromMessage(Messages._DockerWorkspaceDispatcher_InUse(cloud.getDisplayName()));
+        }
+
+        DockerCloud preferred = DockerWorkspaces.get().getPreferredCloud((Job<?, ?>) item.task);
+        if (preferred != null && preferred != cloud
+                && System.currentTimeMillis() - item.getInQueueSince() < DockerWorkspaces.PREFERENCE_GRACE
+                && preferred.getTemplate(item.getAssignedLabel()) != null) {
+            return CauseOfBlockage.fromMessage(Messages._DockerWorkspaceDispatcher_Preferred(preferred.getDisplayName()));
+        }
+
+        return null;
+    }
+
+    /**
+     * Is the task building on a slave of the cloud that mounts the same workspace directory?
+     */
+    private static boolean isBuildingOn(DockerCloud cloud, String hostDir, Queue.Task task) {
+        for (Computer computer : Jenkins.getInstance().getComputers()) {
+            Node node = computer.getNode();
+            if (!(node instanceof DockerSlave))
+                continue;
+
+            DockerSlave other = (DockerSlave) node;
+            DockerTemplate template = other.getDockerTemplate();
+            if (!cloud.name.equals(other.getCloudName()) || template == null
+                    || !Objects.equal(template.workspaceHostDir, hostDir))
+                continue;
+
+            for (Executor executor : computer.getExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable != null && executable.getParent().getOwnerTask() == task)
+                    return true;
+            }
+        }
+        return false;
+    }
+}
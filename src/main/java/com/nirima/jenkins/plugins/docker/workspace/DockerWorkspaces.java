@@ -0,0 +1,180 @@
+package com.nirima.jenkins.plugins.docker.workspace;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerTemplate;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Saveable;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records which docker hosts hold a persistent workspace for which jobs, and when each was last used.
+ *
+ * Used to steer a job back to the host that has its workspace, and by
+ * {@link DockerWorkspaceCleanup} to find workspaces that have been idle too long.
+ */
+public class DockerWorkspaces implements Saveable {
+    private static final Logger LOGGER = Logger.getLogger(DockerWorkspaces.class.getName());
+
+    /**
+     * How long a queued job waits for the host that has its workspace before it will take any (ms).
+     */
+    public static final long PREFERENCE_GRACE = Long.getLong(DockerWorkspaces.class.getName() + ".preferenceGrace", 60 * 1000);
+
+    private static DockerWorkspaces instance;
+
+    /**
+     * cloud|host dir|job -> workspace.
+     */
+    private final Map<String, Workspace> workspaces = new LinkedHashMap<String, Workspace>();
+
+    public static synchronized DockerWorkspaces get() {
+        if (instance == null) {
+            instance = load();
+        }
+        return instance;
+    }
+
+    private static DockerWorkspaces load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return (DockerWorkspaces) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new DockerWorkspaces();
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.getInstance().getRootDir(), "docker-workspaces.xml"));
+    }
+
+    /**
+     * The job is building in the template's workspace directory on the cloud.
+     */
+    public synchronized void recordUse(DockerCloud cloud, DockerTemplate template, Job<?, ?> job) {
+        String key = cloud.name + "|" + template.workspaceHostDir + "|" + job.getFullName();
+        Workspace workspace = workspaces.get(key);
+        if (workspace == null) {
+            workspace = new Workspace(cloud.name, template.workspaceHostDir, template.image, job.getFullName());
+            workspaces.put(key, workspace);
+        }
+        workspace.lastUsed = System.currentTimeMillis();
+        save();
+    }
+
+    public synchronized void remove(Workspace workspace) {
+        workspaces.values().remove(workspace);
+        save();
+    }
+
+    /**
+     * @return the workspaces unused since the given time.
+     */
+    public synchronized List<Workspace> getIdleSince(long time) {
+        List<Workspace> idle = new ArrayList<Workspace>();
+        for (Workspace workspace : workspaces.values()) {
+            if (workspace.lastUsed < time)
+                idle.add(workspace);
+        }
+        return idle;
+    }
+
+    /**
+     * @return the cloud where the job most recently used a workspace, or null if it has none.
+     */
+    public synchronized DockerCloud getPreferredCloud(Job<?, ?> job) {
+        Workspace latest = null;
+        for (Workspace workspace : workspaces.values()) {
+            if (workspace.job.equals(job.getFullName()) && (latest == null || workspace.lastUsed > latest.lastUsed))
+                latest = workspace;
+        }
+        if (latest == null)
+            return null;
+
+        Cloud cloud = Jenkins.getInstance().getCloud(latest.cloud);
+        return cloud instanceof DockerCloud ? (DockerCloud) cloud : null;
+    }
+
+    /**
+     * Should the cloud leave provisioning for the label to another cloud?
+     *
+     * True when every job recently queued for the label has its workspace on some other
+     * cloud that can run it, so that the slave gets started where the workspace is.
+     */
+    public boolean isPreferredElsewhere(DockerCloud cloud, Label label) {
+        long now = System.currentTimeMillis();
+        boolean elsewhere = false;
+
+        for (Queue.BuildableItem item : Jenkins.getInstance().getQueue().getBuildableItems()) {
+            if (label != item.getAssignedLabel())
+                continue;
+            if (!(item.task instanceof Job) || now - item.getInQueueSince() > PREFERENCE_GRACE)
+                return false;
+
+            DockerCloud preferred = getPreferredCloud((Job<?, ?>) item.task);
+            if (preferred == null || preferred == cloud)
+                return false;
+
+            DockerTemplate template = preferred.getTemplate(label);
+            if (template == null || !template.isPersistentWorkspace())
+                return false;
+
+            elsewhere = true;
+        }
+        return elsewhere;
+    }
+
+    public synchronized void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save docker workspaces", e);
+        }
+    }
+
+    /**
+     * A job's workspace directory on one docker host.
+     */
+    public static class Workspace {
+        public final String cloud;
+        public final String hostDir;
+
+        /**
+         * Image of the template that uses the workspace, which we know can run a shell on the host.
+         */
+        public final String image;
+
+        /**
+         * Full name of the job, which is also the workspace's path under {@link #hostDir}.
+         */
+        public final String job;
+
+        private long lastUsed;
+
+        Workspace(String cloud, String hostDir, String image, String job) {
+            this.cloud = cloud;
+            this.hostDir = hostDir;
+            this.image = image;
+            this.job = job;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+    }
+}
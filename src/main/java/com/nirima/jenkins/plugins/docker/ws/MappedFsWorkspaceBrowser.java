@@ -28,7 +28,8 @@ public class MappedFsWorkspaceBrowser extends WorkspaceBrowser  {
             if (! Strings.isNullOrEmpty(a.remoteFsMapping)) {
                 File mappedRemoteWorkspace = new File(a.remoteFsMapping);
                 mappedRemoteWorkspace = new File(mappedRemoteWorkspace, "workspace");
-                mappedRemoteWorkspace = new File(mappedRemoteWorkspace, job.getName());
+                // Slaves lay out workspaces by full name, which differs from the name for jobs in folders.
+                mappedRemoteWorkspace = new File(mappedRemoteWorkspace, job.getFullName());
                 return new FilePath(mappedRemoteWorkspace);
             }
         }
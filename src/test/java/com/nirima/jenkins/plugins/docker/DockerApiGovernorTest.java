@@ -0,0 +1,72 @@
+package com.nirima.jenkins.plugins.docker;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DockerApiGovernorTest {
+
+    @Test
+    public void testBurstThenRate() {
+        DockerApiGovernor.TokenBucket bucket = new DockerApiGovernor.TokenBucket(10, 3);
+        long now = System.currentTimeMillis();
+
+        assertTrue(bucket.tryAcquire(false, now));
+        assertTrue(bucket.tryAcquire(false, now));
+        assertTrue(bucket.tryAcquire(false, now));
+        assertFalse(bucket.tryAcquire(false, now));
+        assertEquals(100, bucket.getDelay(now));
+
+        assertFalse(bucket.tryAcquire(false, now + 99));
+        assertTrue(bucket.tryAcquire(false, now + 100));
+    }
+
+    @Test
+    public void testRefillIsCappedAtBurst() {
+        long now = System.currentTimeMillis();
+        DockerApiGovernor.TokenBucket bucket = new DockerApiGovernor.TokenBucket(10, 2);
+
+        long later = now + TimeUnit.MINUTES.toMillis(1);
+        assertTrue(bucket.tryAcquire(false, later));
+        assertTrue(bucket.tryAcquire(false, later));
+        assertFalse(bucket.tryAcquire(false, later));
+    }
+
+    @Test
+    public void testNoRateIsUnlimited() {
+        DockerApiGovernor.TokenBucket bucket = new DockerApiGovernor.TokenBucket(0, 1);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 100; i++)
+            assertTrue(bucket.tryAcquire(false, now));
+        assertEquals(0, bucket.getDelay(now));
+    }
+
+    @Test
+    public void testCriticalGoesFirst() throws Exception {
+        final DockerApiGovernor.TokenBucket bucket = new DockerApiGovernor.TokenBucket(1, 1);
+        assertTrue(bucket.tryAcquire(false, System.currentTimeMillis()));
+
+        Thread critical = new Thread() {
+            public void run() {
+                try {
+                    bucket.acquire(true);
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        };
+        critical.start();
+        Thread.sleep(200);
+
+        // A token is due, but the waiting critical caller gets it.
+        long later = System.currentTimeMillis() + 2000;
+        assertFalse(bucket.tryAcquire(false, later));
+
+        critical.join(5000);
+        assertFalse(critical.isAlive());
+        assertTrue(bucket.getMaxWait() > 0);
+    }
+}
@@ -0,0 +1,56 @@
+package com.nirima.jenkins.plugins.docker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DockerFairShareTest {
+
+    @Test
+    public void testDividesByWeight() {
+        DockerFairShare.Share big = new DockerFairShare.Share(null, 3, 0, 0, 100);
+        DockerFairShare.Share small = new DockerFairShare.Share(null, 1, 0, 0, 100);
+        DockerFairShare.divide(Arrays.asList(big, small), 20);
+
+        assertEquals(15, big.getShare(), 0.001);
+        assertEquals(5, small.getShare(), 0.001);
+    }
+
+    @Test
+    public void testMinimumsAndUnneededShare() {
+        DockerFairShare.Share matrix = new DockerFairShare.Share(null, 1, 0, 0, 100);
+        DockerFairShare.Share guaranteed = new DockerFairShare.Share(null, 1, 4, 0, 6);
+        DockerFairShare.Share quiet = new DockerFairShare.Share(null, 1, 2, 1, 0);
+        DockerFairShare.divide(Arrays.asList(matrix, guaranteed, quiet), 10);
+
+        // The quiet template only keeps what it uses; what it doesn't need goes to the others.
+        assertEquals(1, quiet.getShare(), 0.001);
+        assertEquals(6, guaranteed.getShare(), 0.001);
+        assertEquals(3, matrix.getShare(), 0.001);
+    }
+
+    @Test
+    public void testKeepsRoomForTheUnderServed() {
+        DockerFairShare.Share matrix = new DockerFairShare.Share(null, 1, 0, 8, 50);
+        DockerFairShare.Share other = new DockerFairShare.Share(null, 1, 0, 0, 3);
+        List<DockerFairShare.Share> shares = Arrays.asList(matrix, other);
+        DockerFairShare.divide(shares, 10);
+
+        assertFalse(DockerFairShare.allows(shares, matrix, 10));
+        assertTrue(DockerFairShare.allows(shares, other, 10));
+    }
+
+    @Test
+    public void testUsesCapacityNobodyElseNeeds() {
+        DockerFairShare.Share matrix = new DockerFairShare.Share(null, 1, 0, 8, 50);
+        DockerFairShare.Share other = new DockerFairShare.Share(null, 1, 0, 1, 0);
+        List<DockerFairShare.Share> shares = Arrays.asList(matrix, other);
+        DockerFairShare.divide(shares, 10);
+
+        assertTrue(DockerFairShare.allows(shares, matrix, 10));
+        assertFalse("cap reached", DockerFairShare.allows(shares, matrix, 9));
+    }
+}
@@ -0,0 +1,74 @@
+package com.nirima.jenkins.plugins.docker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DockerHostHealthTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        DockerHostHealth health = new DockerHostHealth("test");
+        health.record(true, 10, 0);
+        health.record(false, 10, 0);
+        health.record(false, 10, 0);
+        assertTrue(health.isAvailable());
+
+        health.record(false, 10, 0);
+        assertEquals(DockerHostHealth.State.OPEN, health.getState());
+        assertEquals(0, health.getScore(), 0);
+    }
+
+    @Test
+    public void testOpensWhenSlow() {
+        DockerHostHealth health = new DockerHostHealth("test");
+        for (int i = 0; i < 4; i++)
+            health.record(true, 60000, 0);
+        assertTrue(health.isAvailable());
+
+        health.record(true, 60000, 0);
+        assertEquals(DockerHostHealth.State.OPEN, health.getState());
+    }
+
+    @Test
+    public void testProbeAfterCoolDown() {
+        DockerHostHealth health = open();
+
+        assertFalse(health.startProbe(1000));
+        assertTrue(health.startProbe(30 * 1000));
+        assertEquals(DockerHostHealth.State.HALF_OPEN, health.getState());
+        // Only one probe at a time.
+        assertFalse(health.startProbe(30 * 1000));
+
+        health.probed(true, 10, 30 * 1000);
+        assertTrue(health.isAvailable());
+        assertEquals(0, health.getErrorRate(), 0);
+    }
+
+    @Test
+    public void testFailedProbeDoublesCoolDown() {
+        DockerHostHealth health = open();
+
+        assertTrue(health.startProbe(30 * 1000));
+        health.probed(false, 10, 30 * 1000);
+        assertEquals(DockerHostHealth.State.OPEN, health.getState());
+
+        assertFalse(health.startProbe(30 * 1000 + 59 * 1000));
+        assertTrue(health.startProbe(30 * 1000 + 60 * 1000));
+    }
+
+    @Test
+    public void testIgnoresCallsWhileOpen() {
+        DockerHostHealth health = open();
+        health.record(true, 10, 1000);
+        assertEquals(DockerHostHealth.State.OPEN, health.getState());
+    }
+
+    private static DockerHostHealth open() {
+        DockerHostHealth health = new DockerHostHealth("test");
+        for (int i = 0; i < 3; i++)
+            health.record(false, 10, 0);
+        assertEquals(DockerHostHealth.State.OPEN, health.getState());
+        return health;
+    }
+}
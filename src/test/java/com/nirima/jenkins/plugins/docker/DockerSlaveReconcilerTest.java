@@ -0,0 +1,50 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.model.Container;
+import hudson.util.XStream2;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DockerSlaveReconcilerTest {
+
+    @Test
+    public void testGone() {
+        assertEquals(DockerSlaveReconciler.State.GONE, DockerSlaveReconciler.stateOf((Container) null));
+    }
+
+    @Test
+    public void testStopped() {
+        assertEquals(DockerSlaveReconciler.State.STOPPED, DockerSlaveReconciler.stateOf("Exited (137) 2 hours ago"));
+        assertEquals(DockerSlaveReconciler.State.STOPPED, DockerSlaveReconciler.stateOf(""));
+        assertEquals(DockerSlaveReconciler.State.STOPPED, DockerSlaveReconciler.stateOf((String) null));
+    }
+
+    @Test
+    public void testLive() {
+        assertEquals(DockerSlaveReconciler.State.LIVE, DockerSlaveReconciler.stateOf("Up 3 minutes"));
+    }
+
+    @Test
+    public void testOrphanLeases() {
+        ProvisioningLeases before = new ProvisioningLeases();
+        before.attach(before.tryAcquire("cloud", "image", 0, 0, 10, 10, 60000), "orphan");
+        before.attach(before.tryAcquire("cloud", "image", 0, 0, 10, 10, 60000), "slave");
+        before.attach(before.tryAcquire("cloud", "image", 0, 0, 10, 10, 60000), "removed");
+        before.tryAcquire("cloud", "image", 0, 0, 10, 10, 60000);
+        before.attach(before.tryAcquire("elsewhere", "image", 0, 0, 10, 10, 60000), "other");
+
+        // As loaded after a restart.
+        XStream2 xstream = new XStream2();
+        ProvisioningLeases after = (ProvisioningLeases) xstream.fromXML(xstream.toXML(before));
+
+        List<String> orphans = after.reconcile("cloud", Arrays.asList("orphan", "slave", "other"), Collections.singleton("slave"));
+        assertEquals(Collections.singletonList("orphan"), orphans);
+        assertEquals("all the cloud's leases are dropped", 0, after.getTotal("cloud"));
+        assertEquals("other clouds' leases are kept", 1, after.getTotal("elsewhere"));
+    }
+}
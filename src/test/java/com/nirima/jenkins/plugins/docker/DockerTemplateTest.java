@@ -7,7 +7,7 @@ import hudson.model.Node;
 public class DockerTemplateTest {
 
     private DockerTemplate getDockerTemplateInstanceWithDNSHost(String dnsString) {
-        DockerTemplate instance = new DockerTemplate("image", null, "remoteFs", "remoteFsMapping", "credentialsId", "idleTerminationMinutes", " jvmOptions", " javaPath", "prefixStartSlaveCmd", " suffixStartSlaveCmd", "", dnsString, "dockerCommand", "volumes", "volumesFrom", "lxcConf", "hostname", "0.0.0.0:22", true, false);
+        DockerTemplate instance = new DockerTemplate("image", null, "remoteFs", "remoteFsMapping", "credentialsId", "idleTerminationMinutes", " jvmOptions", " javaPath", "prefixStartSlaveCmd", " suffixStartSlaveCmd", "", dnsString, "dockerCommand", "volumes", "volumesFrom", "lxcConf", "hostname", "0.0.0.0:22", true, false, 0, 0, null, 0, "", "", "", 0, "", 0, false, 0, 0, null);
         return instance;
     }
 
@@ -33,4 +33,25 @@ public class DockerTemplateTest {
 
     }
 
+    @Test
+    public void testResourceLimits() {
+        DockerTemplate unlimited = getDockerTemplateInstanceWithDNSHost("");
+        assertEquals(0, unlimited.getMemoryLimitBytes());
+
+        DockerTemplate instance = new DockerTemplate("image", null, "remoteFs", "remoteFsMapping", "credentialsId", "idleTerminationMinutes", " jvmOptions", " javaPath", "prefixStartSlaveCmd", " suffixStartSlaveCmd", "", "", "dockerCommand", "volumes", "volumesFrom", "lxcConf", "hostname", "0.0.0.0:22", true, false, 512, 2048, null, 0, "", "", "", 0, "", 0, false, 0, 0, null);
+        assertEquals(512L * 1024 * 1024, instance.getMemoryLimitBytes());
+        assertEquals(512L * 1024 * 1024, instance.createContainerConfig().getMemoryLimit());
+        assertEquals(2048, instance.createContainerConfig().getCpuShares());
+    }
+
+    @Test
+    public void testTemplateIdKeptAcrossEdits() {
+        DockerTemplate created = getDockerTemplateInstanceWithDNSHost("");
+        assertNotNull(created.getTemplateId());
+        assertFalse(created.getTemplateId().equals(getDockerTemplateInstanceWithDNSHost("").getTemplateId()));
+
+        DockerTemplate edited = new DockerTemplate("image", null, "editedRemoteFs", "remoteFsMapping", "credentialsId", "idleTerminationMinutes", " jvmOptions", " javaPath", "prefixStartSlaveCmd", " suffixStartSlaveCmd", "", "", "dockerCommand", "volumes", "volumesFrom", "lxcConf", "hostname", "0.0.0.0:22", true, false, 0, 0, null, 0, "", "", "", 0, "", 0, false, 0, 0, created.getTemplateId());
+        assertEquals(created.getTemplateId(), edited.getTemplateId());
+    }
+
 }
@@ -0,0 +1,51 @@
+package com.nirima.jenkins.plugins.docker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProvisioningLeasesTest {
+
+    @Test
+    public void testCaps() {
+        ProvisioningLeases leases = new ProvisioningLeases();
+        ProvisioningLeases.Lease first = leases.tryAcquire("cloud", "image", 0, 0, 2, 10, 60000);
+        assertNotNull(first);
+        assertNotNull(leases.tryAcquire("cloud", "image", 0, 0, 2, 10, 60000));
+        assertNull("total cap", leases.tryAcquire("cloud", "other", 0, 0, 2, 10, 60000));
+        // Other clouds' leases don't count.
+        assertNotNull(leases.tryAcquire("elsewhere", "image", 0, 0, 2, 10, 60000));
+
+        leases.release(first);
+        leases.release(first);
+        assertEquals(1, leases.getTotal("cloud"));
+        assertNull("image cap", leases.tryAcquire("cloud", "image", 0, 1, 10, 2, 60000));
+    }
+
+    @Test
+    public void testExpiry() {
+        ProvisioningLeases leases = new ProvisioningLeases();
+        ProvisioningLeases.Lease lease = leases.tryAcquire("cloud", "image", 0, 0, 10, 10, 1000);
+
+        assertEquals(0, leases.expire(lease.created + 999));
+        assertEquals(1, leases.expire(lease.created + 1000));
+        assertEquals(0, leases.get("cloud", "image"));
+        // Giving it back late is harmless.
+        leases.release(lease);
+    }
+
+    @Test
+    public void testReconcileKeepsCurrentLeases() {
+        ProvisioningLeases leases = new ProvisioningLeases();
+        ProvisioningLeases.Lease lease = leases.tryAcquire("cloud", "image", 0, 0, 10, 10, 60000);
+        leases.attach(lease, "abc");
+
+        List<String> orphans = leases.reconcile("cloud", Arrays.asList("abc"), Collections.<String>emptyList());
+        assertTrue(orphans.isEmpty());
+        assertEquals(1, leases.getTotal("cloud"));
+    }
+}
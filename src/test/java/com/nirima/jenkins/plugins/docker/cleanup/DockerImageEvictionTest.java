@@ -0,0 +1,54 @@
+package com.nirima.jenkins.plugins.docker.cleanup;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DockerImageEvictionTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testNothingEvictedWithinBudget() {
+        List<DockerImageEviction.Candidate> candidates = Arrays.asList(
+                new DockerImageEviction.Candidate("a", 100 * MB, 1000, false));
+
+        assertTrue(DockerImageEviction.selectForEviction(candidates, 100 * MB, 200 * MB).isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedFirst() {
+        List<DockerImageEviction.Candidate> candidates = Arrays.asList(
+                new DockerImageEviction.Candidate("recent", 100 * MB, 3000, false),
+                new DockerImageEviction.Candidate("oldest", 100 * MB, 1000, false),
+                new DockerImageEviction.Candidate("older", 100 * MB, 2000, false));
+
+        List<DockerImageEviction.Candidate> victims = DockerImageEviction.selectForEviction(candidates, 300 * MB, 150 * MB);
+
+        assertEquals(2, victims.size());
+        assertEquals("oldest", victims.get(0).id);
+        assertEquals("older", victims.get(1).id);
+    }
+
+    @Test
+    public void testPinnedImagesAreKept() {
+        List<DockerImageEviction.Candidate> candidates = Arrays.asList(
+                new DockerImageEviction.Candidate("template", 500 * MB, 1000, true),
+                new DockerImageEviction.Candidate("build", 100 * MB, 2000, false));
+
+        List<DockerImageEviction.Candidate> victims = DockerImageEviction.selectForEviction(candidates, 600 * MB, 100 * MB);
+
+        assertEquals(1, victims.size());
+        assertEquals("build", victims.get(0).id);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("ubuntu:latest", DockerImageUsage.normalize("ubuntu"));
+        assertEquals("ubuntu:14.04", DockerImageUsage.normalize("ubuntu:14.04"));
+        assertEquals("registry:5000/app:latest", DockerImageUsage.normalize("registry:5000/app"));
+    }
+}
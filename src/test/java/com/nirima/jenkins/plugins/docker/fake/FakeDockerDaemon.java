@@ -0,0 +1,356 @@
+package com.nirima.jenkins.plugins.docker.fake;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the parts of the Docker Remote API the plugin uses.
+ *
+ * Each operation can be given a latency distribution and a failure rate, so that
+ * provisioning and termination can be exercised under realistic (or hostile) conditions
+ * without a real daemon.
+ */
+public class FakeDockerDaemon {
+
+    public enum Operation {
+        PING, VERSION, INFO, LIST_CONTAINERS, CREATE, START, INSPECT, STOP, REMOVE, LIST_IMAGES, PULL, EVENTS
+    }
+
+    private static final Pattern VERSION_PREFIX = Pattern.compile("^/v[0-9.]+");
+    private static final Pattern CONTAINER_ACTION = Pattern.compile("^/containers/([^/]+)/(start|stop|json)$");
+    private static final Pattern CONTAINER = Pattern.compile("^/containers/([^/]+)$");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Random random = new Random();
+
+    private final Map<Operation, LatencyDistribution> latencies = new ConcurrentHashMap<Operation, LatencyDistribution>();
+    private final Map<Operation, Double> failureRates = new ConcurrentHashMap<Operation, Double>();
+    private final Map<Operation, AtomicInteger> calls = new ConcurrentHashMap<Operation, AtomicInteger>();
+
+    private final Map<String, FakeContainer> containers = new ConcurrentHashMap<String, FakeContainer>();
+    private final Set<String> images = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final List<JSONObject> events = new CopyOnWriteArrayList<JSONObject>();
+
+    private final AtomicInteger nextPort = new AtomicInteger(32768);
+
+    public FakeDockerDaemon() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        for (Operation operation : Operation.values()) {
+            calls.put(operation, new AtomicInteger());
+        }
+    }
+
+    public FakeDockerDaemon start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public FakeDockerDaemon withLatency(Operation operation, LatencyDistribution latency) {
+        latencies.put(operation, latency);
+        return this;
+    }
+
+    public FakeDockerDaemon withLatency(LatencyDistribution latency) {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, latency);
+        }
+        return this;
+    }
+
+    /**
+     * @param rate fraction of calls, between 0 and 1, that fail with a server error
+     */
+    public FakeDockerDaemon withFailureRate(Operation operation, double rate) {
+        failureRates.put(operation, rate);
+        return this;
+    }
+
+    public FakeDockerDaemon withImage(String image) {
+        images.add(image);
+        return this;
+    }
+
+    public int getCalls(Operation operation) {
+        return calls.get(operation).get();
+    }
+
+    public Collection<FakeContainer> getContainers() {
+        return containers.values();
+    }
+
+    public int getRunningContainers() {
+        int running = 0;
+        for (FakeContainer container : containers.values()) {
+            if (container.running)
+                running++;
+        }
+        return running;
+    }
+
+    public static class FakeContainer {
+        public final String id;
+        public final String image;
+        public final long created;
+        public final int sshPort;
+        public volatile boolean running;
+
+        FakeContainer(String id, String image, int sshPort) {
+            this.id = id;
+            this.image = image;
+            this.sshPort = sshPort;
+            this.created = System.currentTimeMillis() / 1000;
+        }
+
+        JSONObject toListJson() {
+            JSONObject json = new JSONObject();
+            json.put("Id", id);
+            json.put("Image", image);
+            json.put("Command", "/usr/sbin/sshd -D");
+            json.put("Created", created);
+            json.put("Status", running ? "Up 1 seconds" : "Exited (0) 1 seconds ago");
+            JSONArray ports = new JSONArray();
+            JSONObject port = new JSONObject();
+            port.put("IP", "0.0.0.0");
+            port.put("PrivatePort", 22);
+            port.put("PublicPort", sshPort);
+            port.put("Type", "tcp");
+            ports.add(port);
+            json.put("Ports", ports);
+            return json;
+        }
+
+        JSONObject toInspectJson() {
+            JSONObject binding = new JSONObject();
+            binding.put("HostIp", "0.0.0.0");
+            binding.put("HostPort", String.valueOf(sshPort));
+            JSONArray bindings = new JSONArray();
+            bindings.add(binding);
+            JSONObject ports = new JSONObject();
+            ports.put("22/tcp", bindings);
+            JSONObject network = new JSONObject();
+            network.put("IPAddress", "172.17.0.2");
+            network.put("Ports", ports);
+            JSONObject state = new JSONObject();
+            state.put("Running", running);
+            JSONObject config = new JSONObject();
+            config.put("Image", image);
+
+            JSONObject json = new JSONObject();
+            json.put("Id", id);
+            json.put("Image", image);
+            json.put("Created", "2014-01-01T00:00:00Z");
+            json.put("State", state);
+            json.put("Config", config);
+            json.put("NetworkSettings", network);
+            return json;
+        }
+    }
+
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                String path = VERSION_PREFIX.matcher(exchange.getRequestURI().getPath()).replaceFirst("");
+                Matcher action = CONTAINER_ACTION.matcher(path);
+                Matcher container = CONTAINER.matcher(path);
+
+                if (path.equals("/_ping")) {
+                    simulate(Operation.PING);
+                    respond(exchange, 200, "OK");
+                } else if (path.equals("/version")) {
+                    simulate(Operation.VERSION);
+                    JSONObject json = new JSONObject();
+                    json.put("Version", "1.3.0");
+                    json.put("ApiVersion", "1.15");
+                    respond(exchange, 200, json.toString());
+                } else if (path.equals("/info")) {
+                    simulate(Operation.INFO);
+                    JSONObject json = new JSONObject();
+                    json.put("Containers", containers.size());
+                    json.put("Images", images.size());
+                    json.put("NCPU", 8);
+                    json.put("MemTotal", 16L * 1024 * 1024 * 1024);
+                    respond(exchange, 200, json.toString());
+                } else if (path.equals("/containers/json")) {
+                    simulate(Operation.LIST_CONTAINERS);
+                    boolean all = "1".equals(query(exchange, "all")) || "true".equals(query(exchange, "all"));
+                    JSONArray list = new JSONArray();
+                    for (FakeContainer c : containers.values()) {
+                        if (all || c.running)
+                            list.add(c.toListJson());
+                    }
+                    respond(exchange, 200, list.toString());
+                } else if (path.equals("/containers/create") && method.equals("POST")) {
+                    simulate(Operation.CREATE);
+                    JSONObject body = JSONObject.fromObject(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+                    String image = body.optString("Image");
+                    if (!images.contains(image)) {
+                        respond(exchange, 404, "No such image: " + image);
+                        return;
+                    }
+                    String id = UUID.randomUUID().toString().replace("-", "") + UUID.randomUUID().toString().replace("-", "");
+                    containers.put(id, new FakeContainer(id, image, nextPort.getAndIncrement()));
+                    event(id, image, "create");
+                    JSONObject json = new JSONObject();
+                    json.put("Id", id);
+                    respond(exchange, 201, json.toString());
+                } else if (action.matches()) {
+                    FakeContainer c = containers.get(action.group(1));
+                    String verb = action.group(2);
+                    simulate(verb.equals("start") ? Operation.START : verb.equals("stop") ? Operation.STOP : Operation.INSPECT);
+                    if (c == null) {
+                        respond(exchange, 404, "No such container: " + action.group(1));
+                    } else if (verb.equals("json")) {
+                        respond(exchange, 200, c.toInspectJson().toString());
+                    } else {
+                        boolean start = verb.equals("start");
+                        if (c.running == start) {
+                            respond(exchange, 304, "");
+                        } else {
+                            c.running = start;
+                            event(c.id, c.image, start ? "start" : "die");
+                            respond(exchange, 204, "");
+                        }
+                    }
+                } else if (container.matches() && method.equals("DELETE")) {
+                    simulate(Operation.REMOVE);
+                    FakeContainer c = containers.get(container.group(1));
+                    if (c == null) {
+                        respond(exchange, 404, "No such container: " + container.group(1));
+                    } else if (c.running && !"1".equals(query(exchange, "force"))) {
+                        respond(exchange, 409, "Conflict, container is running");
+                    } else {
+                        containers.remove(c.id);
+                        event(c.id, c.image, "destroy");
+                        respond(exchange, 204, "");
+                    }
+                } else if (path.equals("/images/json")) {
+                    simulate(Operation.LIST_IMAGES);
+                    JSONArray list = new JSONArray();
+                    for (String image : images) {
+                        JSONObject json = new JSONObject();
+                        json.put("Id", Integer.toHexString(image.hashCode()));
+                        JSONArray tags = new JSONArray();
+                        tags.add(image);
+                        json.put("RepoTags", tags);
+                        json.put("Created", 0);
+                        json.put("Size", 1024 * 1024);
+                        json.put("VirtualSize", 200 * 1024 * 1024);
+                        list.add(json);
+                    }
+                    respond(exchange, 200, list.toString());
+                } else if (path.equals("/images/create") && method.equals("POST")) {
+                    simulate(Operation.PULL);
+                    String image = query(exchange, "fromImage");
+                    String tag = query(exchange, "tag");
+                    images.add(tag == null ? image : image + ":" + tag);
+                    respond(exchange, 200, "{\"status\":\"Pulling repository " + image + "\"}\n{\"status\":\"Download complete\"}\n");
+                } else if (path.equals("/events")) {
+                    simulate(Operation.EVENTS);
+                    StringBuilder stream = new StringBuilder();
+                    for (JSONObject event : events) {
+                        stream.append(event.toString()).append('\n');
+                    }
+                    respond(exchange, 200, stream.toString());
+                } else {
+                    respond(exchange, 404, "Not implemented by fake daemon: " + method + " " + path);
+                }
+            } catch (InjectedFailure failure) {
+                respond(exchange, 500, failure.getMessage());
+            } catch (InterruptedException ex) {
+                respond(exchange, 500, "Interrupted");
+            } catch (RuntimeException ex) {
+                respond(exchange, 500, String.valueOf(ex));
+            }
+        }
+    }
+
+    private void simulate(Operation operation) throws InterruptedException, InjectedFailure {
+        calls.get(operation).incrementAndGet();
+
+        LatencyDistribution latency = latencies.get(operation);
+        if (latency != null) {
+            long millis = latency.nextMillis(random);
+            if (millis > 0)
+                Thread.sleep(millis);
+        }
+
+        Double rate = failureRates.get(operation);
+        if (rate != null && random.nextDouble() < rate)
+            throw new InjectedFailure(operation);
+    }
+
+    private void event(String id, String image, String status) {
+        JSONObject event = new JSONObject();
+        event.put("status", status);
+        event.put("id", id);
+        event.put("from", image);
+        event.put("time", System.currentTimeMillis() / 1000);
+        events.add(event);
+    }
+
+    private static String query(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return null;
+        for (String pair : query.split("&")) {
+            String[] kv = pair.split("=", 2);
+            if (kv[0].equals(name))
+                return kv.length > 1 ? kv[1] : "";
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", body.startsWith("{") || body.startsWith("[") ? "application/json" : "text/plain");
+        boolean empty = status == 204 || status == 304 || bytes.length == 0;
+        exchange.sendResponseHeaders(status, empty ? -1 : bytes.length);
+        if (!empty) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+        exchange.close();
+    }
+
+    private static class InjectedFailure extends Exception {
+        InjectedFailure(Operation operation) {
+            super("Injected failure of " + operation);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.nirima.jenkins.plugins.docker.fake;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process stand-in for an OpenTelemetry collector's OTLP/HTTP JSON trace endpoint,
+ * keeping every span it is sent.
+ */
+public class FakeOtlpCollector {
+
+    private final HttpServer server;
+    private final List<JSONObject> requests = new CopyOnWriteArrayList<JSONObject>();
+
+    public FakeOtlpCollector() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/traces", new Handler());
+    }
+
+    public FakeOtlpCollector start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the export requests received, as sent.
+     */
+    public List<JSONObject> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return every span received, in the order they were sent.
+     */
+    public List<JSONObject> getSpans() {
+        List<JSONObject> spans = new ArrayList<JSONObject>();
+        for (JSONObject request : requests) {
+            JSONArray resourceSpans = request.getJSONArray("resourceSpans");
+            for (int i = 0; i < resourceSpans.size(); i++) {
+                JSONArray scopeSpans = resourceSpans.getJSONObject(i).getJSONArray("scopeSpans");
+                for (int j = 0; j < scopeSpans.size(); j++) {
+                    JSONArray list = scopeSpans.getJSONObject(j).getJSONArray("spans");
+                    for (int k = 0; k < list.size(); k++)
+                        spans.add(list.getJSONObject(k));
+                }
+            }
+        }
+        return spans;
+    }
+
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            try {
+                if (!exchange.getRequestMethod().equals("POST")
+                        || !"application/json".equals(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                    status = 415;
+                } else {
+                    requests.add(JSONObject.fromObject(IOUtils.toString(exchange.getRequestBody(), "UTF-8")));
+                }
+            } catch (RuntimeException ex) {
+                status = 400;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+}
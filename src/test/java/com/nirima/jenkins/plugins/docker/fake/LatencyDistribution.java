@@ -0,0 +1,48 @@
+package com.nirima.jenkins.plugins.docker.fake;
+
+import java.util.Random;
+
+/**
+ * How long the fake daemon takes to answer a call.
+ */
+public abstract class LatencyDistribution {
+
+    public abstract long nextMillis(Random random);
+
+    public static LatencyDistribution none() {
+        return fixed(0);
+    }
+
+    public static LatencyDistribution fixed(final long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * Long-tailed latency, as real daemons show under load.
+     *
+     * @param medianMillis half the calls are faster than this
+     * @param sigma spread of the tail; 0.5 is mild, 1.5 is severe
+     */
+    public static LatencyDistribution logNormal(final long medianMillis, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return (long) (medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.nirima.jenkins.plugins.docker.forecast;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LabelDemandTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Start of a bucket, well after the epoch.
+     */
+    private static final long START = 1000 * DAY;
+
+    @Test
+    public void testNothingSeen() {
+        LabelDemand demand = new LabelDemand("java");
+        assertTrue(Float.isNaN(demand.forecast(START)));
+        assertTrue(Float.isNaN(demand.predict(START, 5 * MINUTE)));
+        assertEquals("No forecasts checked yet", demand.getAccuracy());
+    }
+
+    @Test
+    public void testForecastsSameTimeNextDay() {
+        LabelDemand demand = new LabelDemand("java");
+        // A burst of 8 for one bucket each day, none otherwise.
+        recordDay(demand, START, 8);
+
+        assertEquals(8f, demand.forecast(START + DAY + 60 * MINUTE), 0.01f);
+        assertEquals(0f, demand.forecast(START + DAY + 120 * MINUTE), 0.01f);
+    }
+
+    @Test
+    public void testChecksForecasts() {
+        LabelDemand demand = new LabelDemand("java");
+        recordDay(demand, START, 8);
+
+        // The next day the burst is only 6.
+        long day = START + DAY;
+        for (long t = day; t < day + 2 * 60 * MINUTE; t += MINUTE) {
+            demand.predict(t, 5 * MINUTE);
+            demand.record(t, t >= day + 60 * MINUTE && t < day + 65 * MINUTE ? 6 : 0);
+        }
+
+        assertTrue(demand.getForecastsChecked() > 0);
+        assertEquals(2.0 / demand.getForecastsChecked(), demand.getMeanAbsoluteError(), 0.001);
+        assertEquals(2.0 / 6, demand.getWeightedError(), 0.001);
+    }
+
+    private static void recordDay(LabelDemand demand, long from, int burst) {
+        for (long t = from; t < from + DAY; t += MINUTE)
+            demand.record(t, t >= from + 60 * MINUTE && t < from + 65 * MINUTE ? burst : 0);
+    }
+}
@@ -0,0 +1,99 @@
+package com.nirima.jenkins.plugins.docker.journal;
+
+import com.google.common.base.Predicate;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DockerLifecycleJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testNewestFirst() {
+        DockerLifecycleJournal journal = new DockerLifecycleJournal(8);
+        journal.record(LifecycleEvent.Type.REQUESTED, "cloud", "image", null, -1, null);
+        journal.record(LifecycleEvent.Type.CREATED, "cloud", "image", "abc", 120, null);
+        journal.record(LifecycleEvent.Type.STARTED, "cloud", "image", "abc", -1, null);
+
+        List<LifecycleEvent> events = journal.getEvents(-1, 10, null);
+        assertEquals(3, events.size());
+        assertEquals(LifecycleEvent.Type.STARTED, events.get(0).type);
+        assertEquals(120, events.get(1).duration);
+        assertEquals(-1, events.get(2).duration);
+        // Timed from the container's previous event.
+        assertTrue(events.get(0).duration >= 0);
+    }
+
+    @Test
+    public void testOverwritesOldest() {
+        DockerLifecycleJournal journal = new DockerLifecycleJournal(4);
+        for (int i = 0; i < 10; i++)
+            journal.record(LifecycleEvent.Type.REQUESTED, "cloud", "image" + i, null, -1, null);
+
+        List<LifecycleEvent> events = journal.getEvents(-1, 10, null);
+        assertEquals(4, events.size());
+        assertEquals("image9", events.get(0).template);
+        assertEquals("image6", events.get(3).template);
+    }
+
+    @Test
+    public void testPagingAndFilter() {
+        DockerLifecycleJournal journal = new DockerLifecycleJournal(16);
+        for (int i = 0; i < 10; i++)
+            journal.record(LifecycleEvent.Type.REQUESTED, i % 2 == 0 ? "even" : "odd", "image" + i, null, -1, null);
+
+        Predicate<LifecycleEvent> even = new Predicate<LifecycleEvent>() {
+            public boolean apply(LifecycleEvent event) {
+                return event.cloud.equals("even");
+            }
+        };
+        List<LifecycleEvent> page = journal.getEvents(-1, 2, even);
+        assertEquals("image8", page.get(0).template);
+        assertEquals("image6", page.get(1).template);
+
+        page = journal.getEvents(page.get(1).seq, 10, even);
+        assertEquals(3, page.size());
+        assertEquals("image4", page.get(0).template);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        DockerLifecycleJournal journal = new DockerLifecycleJournal(4);
+        File dir = tmp.newFolder("journal");
+
+        journal.record(LifecycleEvent.Type.CREATED, "cloud", "image", "abc", 5, null);
+        assertEquals(0, journal.flush(dir));
+        for (int i = 0; i < 6; i++)
+            journal.record(LifecycleEvent.Type.REQUESTED, "cloud", "image", null, -1, "n" + i);
+        assertEquals(2, journal.flush(dir));
+        assertEquals(0, journal.flush(dir));
+
+        List<String> lines = FileUtils.readLines(new File(dir, "journal.log"), "UTF-8");
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"containerId\":\"abc\""));
+        assertTrue(lines.get(4), lines.get(4).contains("\"detail\":\"n5\""));
+    }
+
+    @Test
+    public void testFlushForgetsContainersOutOfTheRing() throws Exception {
+        DockerLifecycleJournal journal = new DockerLifecycleJournal(4);
+        File dir = tmp.newFolder("journal");
+
+        journal.record(LifecycleEvent.Type.CREATED, "cloud", "image", "old", 5, null);
+        for (int i = 0; i < 4; i++)
+            journal.record(LifecycleEvent.Type.REQUESTED, "cloud", "image", null, -1, null);
+        journal.record(LifecycleEvent.Type.CREATED, "cloud", "image", "recent", 5, null);
+        journal.flush(dir);
+
+        assertEquals(-1, journal.record(LifecycleEvent.Type.STARTED, "cloud", "image", "old", -1, null).duration);
+        assertTrue(journal.record(LifecycleEvent.Type.STARTED, "cloud", "image", "recent", -1, null).duration >= 0);
+    }
+}
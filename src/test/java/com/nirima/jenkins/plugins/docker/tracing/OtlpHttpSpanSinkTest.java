@@ -0,0 +1,71 @@
+package com.nirima.jenkins.plugins.docker.tracing;
+
+import com.nirima.jenkins.plugins.docker.fake.FakeOtlpCollector;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OtlpHttpSpanSinkTest {
+
+    private FakeOtlpCollector collector;
+
+    @Before
+    public void setUp() throws Exception {
+        collector = new FakeOtlpCollector().start();
+    }
+
+    @After
+    public void tearDown() {
+        collector.stop();
+    }
+
+    @Test
+    public void testExportsParentAndChild() throws Exception {
+        Span parent = Tracing.start("docker.provision");
+        parent.setAttribute("cloud", "docker");
+        Span child = Tracing.start("docker.template.provision");
+        assertSame(child, Tracing.current());
+        child.setError(new IllegalStateException("no such image"));
+        child.end();
+        assertSame(parent, Tracing.current());
+        parent.end();
+        assertNull(Tracing.current());
+
+        new OtlpHttpSpanSink(collector.getUrl()).export(Arrays.asList(child, parent));
+
+        assertEquals(1, collector.getRequests().size());
+        JSONObject resource = collector.getRequests().get(0).getJSONArray("resourceSpans").getJSONObject(0).getJSONObject("resource");
+        assertEquals(OtlpHttpSpanSink.SERVICE_NAME, resource.getJSONArray("attributes").getJSONObject(0).getJSONObject("value").getString("stringValue"));
+
+        List<JSONObject> spans = collector.getSpans();
+        assertEquals(2, spans.size());
+        JSONObject exportedChild = spans.get(0);
+        JSONObject exportedParent = spans.get(1);
+        assertEquals(parent.traceId, exportedChild.getString("traceId"));
+        assertEquals(parent.traceId, exportedParent.getString("traceId"));
+        assertEquals(parent.spanId, exportedChild.getString("parentSpanId"));
+        assertFalse(exportedParent.has("parentSpanId"));
+        assertEquals(2, exportedChild.getJSONObject("status").getInt("code"));
+        assertEquals(String.valueOf(parent.startMillis * 1000000L), exportedParent.getString("startTimeUnixNano"));
+        assertEquals("cloud", exportedParent.getJSONArray("attributes").getJSONObject(0).getString("key"));
+    }
+
+    @Test
+    public void testRecordNeedsCurrentSpan() {
+        assertNull(Tracing.record("docker.create", 0, 10));
+
+        Span parent = Tracing.start("docker.provision");
+        Span recorded = Tracing.record("docker.create", parent.startMillis, 10);
+        assertEquals(parent.spanId, recorded.parentId);
+        assertEquals(10, recorded.getDuration());
+        // Recording doesn't change which span is current.
+        assertSame(parent, Tracing.current());
+        parent.end();
+    }
+}
@@ -0,0 +1,41 @@
+package com.nirima.jenkins.plugins.docker.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongRingBufferTest {
+
+    @Test
+    public void testFillsUp() {
+        LongRingBuffer buffer = new LongRingBuffer(3);
+        assertEquals(0, buffer.size());
+
+        buffer.add(1);
+        buffer.add(2);
+
+        assertEquals(2, buffer.size());
+        assertArrayEquals(new long[]{1, 2}, buffer.toArray());
+        assertEquals(2, buffer.last());
+    }
+
+    @Test
+    public void testOverwritesOldest() {
+        LongRingBuffer buffer = new LongRingBuffer(3);
+        for (long i = 1; i <= 5; i++) {
+            buffer.add(i);
+        }
+
+        assertEquals(3, buffer.size());
+        assertArrayEquals(new long[]{3, 4, 5}, buffer.toArray());
+        assertEquals(3, buffer.get(0));
+        assertEquals(5, buffer.max());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetBeyondSize() {
+        LongRingBuffer buffer = new LongRingBuffer(3);
+        buffer.add(1);
+        buffer.get(1);
+    }
+}